@@ -10,6 +10,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.Hashtable;
 import java.util.List;
+import java.util.Set;
 import java.util.stream.Collectors;
 import org.apache.commons.lang.NotImplementedException;
 import dev.mtbt.imagej.PolygonRoiVerbose;
@@ -323,6 +324,13 @@ public class Cell extends AbstractCellCollection {
         && this.lastRoiHashCodes.containsKey(cellFrameId);
   }
 
+  /**
+   * Ids of cell frames displayed as rois, see {@link #isOwnCellFrameRoi(Roi)}
+   */
+  protected Set<String> getObservedCellFrameIds() {
+    return Collections.unmodifiableSet(this.lastRoiHashCodes.keySet());
+  }
+
   private int getPolygonRoiHashCode(PolygonRoi roi) {
     Polygon polygon = roi.getPolygon();
     String str = Arrays.toString(polygon.xpoints) + Arrays.toString(polygon.ypoints);
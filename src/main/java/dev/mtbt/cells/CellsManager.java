@@ -1,16 +1,22 @@
 package dev.mtbt.cells;
 
+import java.awt.geom.Rectangle2D;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 import javax.swing.event.ListDataEvent;
 import javax.swing.event.ListDataListener;
 import dev.mtbt.imagej.ImageJUtils;
 import dev.mtbt.imagej.RoiObserver;
 import dev.mtbt.imagej.IRoiObserverListener;
+import dev.mtbt.util.BoundsGridIndex;
 import ij.IJ;
 import ij.ImagePlus;
 import ij.WindowManager;
@@ -32,6 +38,7 @@ public class CellsManager implements IRoiObserverListener, ListDataListener {
   private CellCollection cellCollection;
   private int lastDisplayedRoisFrame = -1;
   private Set<Roi> lastDisplayedRois = new HashSet<>();
+  private BooleanSupplier lock = () -> false;
 
   public CellsManager(ImagePlus observedImage, CellCollection cellCollection) {
     this.observedImage = observedImage;
@@ -39,6 +46,18 @@ public class CellsManager implements IRoiObserverListener, ListDataListener {
     RoiObserver.addListener(this);
   }
 
+  /**
+   * While the lock is held cells are not displayed and changes of their rois are ignored, so cells
+   * modified by another thread are not read or edited at the same time
+   */
+  public void setLock(BooleanSupplier lock) {
+    this.lock = lock;
+  }
+
+  public boolean isLocked() {
+    return this.lock.getAsBoolean();
+  }
+
   public RoiManager getObservedRoiManager() {
     RoiManager roiManager = ImageJUtils.getRoiManager();
     try {
@@ -63,6 +82,11 @@ public class CellsManager implements IRoiObserverListener, ListDataListener {
     roiManager.reset();
     roiManager.runCommand("show all with labels");
     roiManager.runCommand("usenames", "true");
+    if (this.isLocked()) {
+      this.lastDisplayedRoisFrame = -1;
+      this.lastDisplayedRois = new HashSet<>();
+      return;
+    }
 
     List<Cell> currentCells = this.getCurrentCells();
     int frame = this.observedImage.getT();
@@ -77,18 +101,41 @@ public class CellsManager implements IRoiObserverListener, ListDataListener {
 
   @Override
   public void roiModified(Roi modifiedRoi, int id) {
-    if (this.observedImage != null && modifiedRoi.getImage() == this.observedImage) {
+    if (this.observedImage != null && modifiedRoi.getImage() == this.observedImage
+        && !this.isLocked()) {
       this.notify(modifiedRoi, id);
     }
   }
 
-  private List<PolygonRoi> getCellsActiveRois(Cell cell) {
+  /**
+   * Cell frame rois of the roi manager intersecting the area, grouped by cells in a single pass.
+   * Rois are looked up in a grid of their bounds, so only rois near the area are tested by tools.
+   */
+  private Map<Cell, List<PolygonRoi>> getCellsActiveRois(List<Cell> cells, Rectangle2D area) {
+    Map<Cell, List<PolygonRoi>> cellsRois = new HashMap<>();
     RoiManager roiManager = RoiManager.getInstance();
     if (roiManager != null) {
-      return Arrays.asList(roiManager.getRoisAsArray()).stream().filter(cell::isOwnCellFrameRoi)
-          .map(roi -> (PolygonRoi) roi).collect(Collectors.toList());
+      Map<String, Cell> owners = this.getCellFrameOwners(cells);
+      List<Roi> ownRois = Arrays.stream(roiManager.getRoisAsArray())
+          .filter(roi -> roi.getType() == Roi.POLYLINE
+              && owners.containsKey(roi.getProperty(Cell.PROPERTY_CELL_FRAME_ID)))
+          .collect(Collectors.toList());
+      BoundsGridIndex<Roi> index = new BoundsGridIndex<>(ownRois, Roi::getFloatBounds);
+      for (Roi roi : index.query(area)) {
+        cellsRois.computeIfAbsent(owners.get(roi.getProperty(Cell.PROPERTY_CELL_FRAME_ID)),
+            cell -> new ArrayList<>()).add((PolygonRoi) roi);
+      }
     }
-    return new ArrayList<PolygonRoi>();
+    return cellsRois;
+  }
+
+  /**
+   * Cells by ids of their displayed cell frames
+   */
+  private Map<String, Cell> getCellFrameOwners(List<Cell> cells) {
+    Map<String, Cell> owners = new HashMap<>();
+    cells.forEach(cell -> cell.getObservedCellFrameIds().forEach(id -> owners.put(id, cell)));
+    return owners;
   }
 
   public List<Cell> getCurrentCells() {
@@ -106,13 +153,17 @@ public class CellsManager implements IRoiObserverListener, ListDataListener {
     List<Cell> cells = this.getCurrentCells();
 
     if (isCut && activeTool == TOOL_CUT) {
-      cells.forEach(cell -> {
-        cell.cellFrameRoisCut(this.getCellsActiveRois(cell), (Line) modifiedRoi);
+      Map<Cell, List<PolygonRoi>> cellsRois =
+          this.getCellsActiveRois(cells, modifiedRoi.getFloatBounds());
+      cells.stream().filter(cellsRois::containsKey).forEach(cell -> {
+        cell.cellFrameRoisCut(cellsRois.get(cell), (Line) modifiedRoi);
       });
     }
     if (isErase && activeTool == TOOL_ERASE) {
-      cells.forEach(cell -> {
-        cell.cellFrameRoisShorten(this.getCellsActiveRois(cell), (ShapeRoi) modifiedRoi);
+      Map<Cell, List<PolygonRoi>> cellsRois =
+          this.getCellsActiveRois(cells, modifiedRoi.getFloatBounds());
+      cells.stream().filter(cellsRois::containsKey).forEach(cell -> {
+        cell.cellFrameRoisShorten(cellsRois.get(cell), (ShapeRoi) modifiedRoi);
       });
     }
     if (potentialModification) {
@@ -162,19 +213,31 @@ public class CellsManager implements IRoiObserverListener, ListDataListener {
   @Override
   public void intervalRemoved(ListDataEvent e) {
     RoiManager roiManager = RoiManager.getInstance();
-    if (roiManager != null && this.lastDisplayedRoisFrame == this.observedImage.getT()) {
+    if (roiManager != null && !this.isLocked()
+        && this.lastDisplayedRoisFrame == this.observedImage.getT()) {
       // check if any of previously displayed cells
       // that should be still visible is missing
-      List<Cell> shouldStillBeThere = this.getCurrentCells().stream()
-          .filter(cell -> this.lastDisplayedRois.stream().anyMatch(cell::isOwnCellFrameRoi))
-          .collect(Collectors.toList());
-      shouldStillBeThere.forEach(cell -> {
-        if (Arrays.asList(roiManager.getRoisAsArray()).stream()
-            .noneMatch(cell::isOwnCellFrameRoi)) {
-          cell.clearFuture(this.observedImage.getT());
-        }
-      });
+      // rois are matched to cells by ids of cell frames instead of testing every pair
+      Map<String, Cell> owners = this.getCellFrameOwners(this.getCurrentCells());
+      Set<Cell> shouldStillBeThere = this.getOwners(this.lastDisplayedRois, owners);
+      shouldStillBeThere
+          .removeAll(this.getOwners(Arrays.asList(roiManager.getRoisAsArray()), owners));
+      this.getCurrentCells().stream().filter(shouldStillBeThere::contains)
+          .forEach(cell -> cell.clearFuture(this.observedImage.getT()));
+    }
+  }
+
+  private Set<Cell> getOwners(Collection<Roi> rois, Map<String, Cell> owners) {
+    Set<Cell> cells = new HashSet<>();
+    for (Roi roi : rois) {
+      Cell owner = roi.getType() == Roi.POLYLINE
+          ? owners.get(roi.getProperty(Cell.PROPERTY_CELL_FRAME_ID))
+          : null;
+      if (owner != null) {
+        cells.add(owner);
+      }
     }
+    return cells;
   }
 
   @Override
@@ -20,6 +20,7 @@ import org.scijava.ui.DialogPrompt;
 import org.scijava.ui.UIService;
 import org.scijava.ui.DialogPrompt.MessageType;
 import dev.mtbt.cells.measurements.StepMeasurements;
+import dev.mtbt.cells.serialization.TrackingCheckpoint;
 import dev.mtbt.cells.skeleton.SkeletonCellDetector;
 import dev.mtbt.cells.skeleton.SkeletonCellLifeTracker;
 import dev.mtbt.gui.DialogStepperActions;
@@ -79,6 +80,8 @@ public class CellsPlugin extends DynamicCommand implements ImageListener {
 
     ImagePlus.addImageListener(this);
     this.cellsManager = new CellsManager(this.impPreviewStack, this.cellCollection);
+    this.cellsManager.setLock(() -> this.currentStepInstance != null
+        && this.currentStepInstance.isModifyingCells());
   }
 
   private void initComponents() {
@@ -177,13 +180,14 @@ public class CellsPlugin extends DynamicCommand implements ImageListener {
   public void cleanup() {
     CellsPlugin.instance = null;
     ImagePlus.removeImageListener(this);
+    // stops background work of the step before cells are destroyed
+    if (this.currentStepInstance != null) {
+      this.currentStepInstance.cleanup();
+    }
     this.cellCollection.destroy();
     RoiManager roiManager = this.cellsManager.getObservedRoiManager();
     roiManager.reset();
     roiManager.close();
-    if (this.currentStepInstance != null) {
-      this.currentStepInstance.cleanup();
-    }
     this.dialog.setConfirmationMethod(() -> true);
     this.impPreviewStack.close();
   }
@@ -226,6 +230,34 @@ public class CellsPlugin extends DynamicCommand implements ImageListener {
     return this.cellCollection;
   }
 
+  /**
+   * Replaces cells by cells of the checkpoint and continues tracking from its last frame. The
+   * collection and the step are switched on the GUI thread, tracking runs in the background.
+   */
+  public void resumeTracking(TrackingCheckpoint checkpoint) throws Exception {
+    if (!checkpoint.matches(this.impPreviewStack)) {
+      uiService.showDialog("Checkpoint of \"" + checkpoint.getImageTitle()
+          + "\" does not match the image.", MessageType.ERROR_MESSAGE);
+      return;
+    }
+    SwingUtilities.invokeAndWait(() -> {
+      this.cellCollection.clear();
+      checkpoint.getCellCollection().getAllRootCells().forEach(cell -> {
+        // keep names of the checkpoint, descendants are named after their root
+        String family = cell.getFamily();
+        this.cellCollection.addToCollection(cell);
+        cell.setFamily(family);
+      });
+      this.currentStep = CellsPluginStepType.LifeTracker;
+      this.dialogActions.setIsFirst(this.currentStep.isFirst());
+      this.dialogActions.setIsLast(this.currentStep.isLast());
+      this.updateStep();
+      if (this.currentStepInstance instanceof SkeletonCellLifeTracker) {
+        ((SkeletonCellLifeTracker) this.currentStepInstance).resume(checkpoint);
+      }
+    });
+  }
+
   enum CellsPluginStepType {
     Detector, LifeTracker, Measurements;
 
@@ -8,5 +8,13 @@ public interface ICellsPluginStep {
 
   public void imageUpdated();
 
+  /**
+   * Whether the step modifies cells outside of the GUI thread at the moment, cells are then
+   * neither displayed nor edited by the plugin
+   */
+  public default boolean isModifyingCells() {
+    return false;
+  }
+
   public void cleanup();
 }
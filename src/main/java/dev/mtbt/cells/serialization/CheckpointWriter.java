@@ -0,0 +1,113 @@
+package dev.mtbt.cells.serialization;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import ij.IJ;
+import ij.ImagePlus;
+
+/**
+ * Writes {@link TrackingCheckpoint}s of a tracking run to a single file.
+ * <p>
+ * Checkpoints are serialized on the calling thread, so they are consistent snapshots of cells
+ * modified by tracking, and written on a background thread. Only the newest pending checkpoint is
+ * written, older ones are dropped. The file is written to a temporary name and moved in place, so a
+ * crash never leaves a partial checkpoint behind.
+ */
+public class CheckpointWriter {
+  public static final long INTERVAL_MILLIS = 30_000;
+
+  private final File file;
+  private final AtomicReference<byte[]> pending = new AtomicReference<>();
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "tracking-checkpoint");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    return thread;
+  });
+  private long lastCheckpoint = 0;
+
+  public CheckpointWriter(File file) {
+    this.file = file;
+  }
+
+  public static File getDefaultDirectory() {
+    return new File(System.getProperty("user.home"), ".mtbt" + File.separator + "checkpoints");
+  }
+
+  /**
+   * Checkpoint file of an image in a directory, named by its title and a hash of its
+   * {@link TrackingCheckpoint#getImageId(ImagePlus) id}, so images with the same title do not
+   * overwrite checkpoints of each other
+   */
+  public static File getFile(File directory, ImagePlus imp) {
+    String id = Integer.toHexString(TrackingCheckpoint.getImageId(imp).hashCode());
+    return new File(directory, imp.getTitle().replaceAll("[^\\w.-]", "_") + "-" + id + ".ckpt");
+  }
+
+  public File getFile() {
+    return this.file;
+  }
+
+  /**
+   * Whether the last checkpoint is older than {@link #INTERVAL_MILLIS}
+   */
+  public boolean isDue() {
+    return System.currentTimeMillis() - this.lastCheckpoint >= INTERVAL_MILLIS;
+  }
+
+  public void checkpoint(TrackingCheckpoint checkpoint) {
+    if (this.executor.isShutdown()) {
+      return;
+    }
+    byte[] bytes;
+    try {
+      bytes = checkpoint.toBytes();
+    } catch (IOException e) {
+      IJ.log("[CheckpointWriter] Could not serialize checkpoint: " + e.getMessage());
+      return;
+    }
+    this.lastCheckpoint = System.currentTimeMillis();
+    if (this.pending.getAndSet(bytes) == null) {
+      this.executor.submit(this::writePending);
+    }
+  }
+
+  private void writePending() {
+    byte[] bytes = this.pending.getAndSet(null);
+    if (bytes == null) {
+      return;
+    }
+    File directory = this.file.getAbsoluteFile().getParentFile();
+    File temp = null;
+    try {
+      Files.createDirectories(directory.toPath());
+      temp = File.createTempFile(this.file.getName(), ".tmp", directory);
+      Files.write(temp.toPath(), bytes);
+      Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      IJ.log("[CheckpointWriter] Could not write " + this.file + ": " + e.getMessage());
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+
+  /**
+   * Writes the pending checkpoint and stops the background thread
+   */
+  public void close() {
+    this.executor.shutdown();
+    try {
+      this.executor.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
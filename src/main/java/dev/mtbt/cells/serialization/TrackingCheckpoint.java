@@ -0,0 +1,139 @@
+package dev.mtbt.cells.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.file.Files;
+import dev.mtbt.cells.CellCollection;
+import dev.mtbt.cells.skeleton.Skeleton;
+import ij.ImagePlus;
+import ij.io.FileInfo;
+import ij.process.ImageProcessor;
+
+/**
+ * Cells and tracker settings of a tracking run after its last completed frame, enough to continue
+ * tracking from that frame. Written by {@link CheckpointWriter}, restored by
+ * {@link TrackingResumePlugin}.
+ */
+public class TrackingCheckpoint implements Serializable {
+  private static final long serialVersionUID = -2260961735148930167L;
+
+  private final String imageTitle;
+  private final String imageId;
+  private final int width;
+  private final int height;
+  private final int nFrames;
+  private final int channel;
+  private final int slice;
+  private final double blur;
+  private final double threshold;
+  private final Skeleton.Engine engine;
+  private final boolean motionPrediction;
+  private final int lastFrame;
+  private final CellCollection cellCollection;
+
+  public TrackingCheckpoint(ImagePlus imp, CellCollection cellCollection, int channel, int slice,
+      double blur, double threshold, Skeleton.Engine engine, boolean motionPrediction,
+      int lastFrame) {
+    this.imageTitle = imp.getTitle();
+    this.imageId = getImageId(imp);
+    this.width = imp.getWidth();
+    this.height = imp.getHeight();
+    this.nFrames = imp.getNFrames();
+    this.cellCollection = cellCollection;
+    this.channel = channel;
+    this.slice = slice;
+    this.blur = blur;
+    this.threshold = threshold;
+    this.engine = engine;
+    this.motionPrediction = motionPrediction;
+    this.lastFrame = lastFrame;
+  }
+
+  /**
+   * Serialized snapshot, later changes of the cells are not included
+   */
+  public byte[] toBytes() throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(this);
+    }
+    return bytes.toByteArray();
+  }
+
+  public static TrackingCheckpoint read(File file) throws IOException, ClassNotFoundException {
+    try (ObjectInputStream in =
+        new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      return (TrackingCheckpoint) in.readObject();
+    }
+  }
+
+  /**
+   * Path of the image file, or a hash of the pixels of its first frame when it was not opened from
+   * a file
+   */
+  public static String getImageId(ImagePlus imp) {
+    FileInfo info = imp.getOriginalFileInfo();
+    if (info != null && info.fileName != null && info.directory != null
+        && !info.directory.isEmpty()) {
+      return new File(info.directory, info.fileName).getAbsolutePath();
+    }
+    ImageProcessor ip = imp.getStack().getProcessor(1);
+    long hash = 17;
+    for (int i = 0; i < ip.getPixelCount(); i++) {
+      hash = 31 * hash + Float.floatToIntBits(ip.getf(i));
+    }
+    return "frame " + Long.toHexString(hash);
+  }
+
+  /**
+   * Whether the checkpoint belongs to the image (same file or first frame and dimensions)
+   */
+  public boolean matches(ImagePlus imp) {
+    return imp.getWidth() == this.width && imp.getHeight() == this.height
+        && imp.getNFrames() == this.nFrames && getImageId(imp).equals(this.imageId);
+  }
+
+  public String getImageTitle() {
+    return this.imageTitle;
+  }
+
+  public int getChannel() {
+    return this.channel;
+  }
+
+  public int getSlice() {
+    return this.slice;
+  }
+
+  public double getBlur() {
+    return this.blur;
+  }
+
+  public double getThreshold() {
+    return this.threshold;
+  }
+
+  public Skeleton.Engine getEngine() {
+    return this.engine;
+  }
+
+  public boolean isMotionPrediction() {
+    return this.motionPrediction;
+  }
+
+  /**
+   * Last frame with tracked cells, tracking continues with the next one
+   */
+  public int getLastFrame() {
+    return this.lastFrame;
+  }
+
+  public CellCollection getCellCollection() {
+    return this.cellCollection;
+  }
+}
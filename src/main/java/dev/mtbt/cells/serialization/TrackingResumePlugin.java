@@ -0,0 +1,60 @@
+package dev.mtbt.cells.serialization;
+
+import java.io.File;
+import org.scijava.command.Command;
+import org.scijava.command.CommandService;
+import org.scijava.command.DynamicCommand;
+import org.scijava.plugin.Parameter;
+import org.scijava.plugin.Plugin;
+import org.scijava.ui.DialogPrompt;
+import org.scijava.ui.UIService;
+import org.scijava.widget.FileWidget;
+import dev.mtbt.cells.CellsPlugin;
+
+@Plugin(type = Command.class, menuPath = "Mycobacterium>Resume tracking")
+public class TrackingResumePlugin extends DynamicCommand {
+  @Parameter
+  private UIService uiService;
+
+  @Override
+  public void run() {
+    if (CellsPlugin.instance != null && !CellsPlugin.instance.getCellCollection().isEmpty()) {
+      DialogPrompt.Result result =
+          uiService.showDialog("You will loose selected cells. Are you sure you want to continue?",
+              DialogPrompt.MessageType.QUESTION_MESSAGE, DialogPrompt.OptionType.YES_NO_OPTION);
+      if (result != DialogPrompt.Result.YES_OPTION) {
+        return;
+      }
+    }
+
+    File file = uiService.chooseFile(CheckpointWriter.getDefaultDirectory(),
+        FileWidget.OPEN_STYLE);
+    if (file == null) {
+      return;
+    }
+    TrackingCheckpoint checkpoint;
+    try {
+      checkpoint = TrackingCheckpoint.read(file);
+    } catch (Exception e) {
+      uiService.showDialog("Could not read checkpoint " + file.getName(),
+          DialogPrompt.MessageType.ERROR_MESSAGE);
+      e.printStackTrace();
+      return;
+    }
+
+    try {
+      if (CellsPlugin.instance == null) {
+        CommandService cmdService = this.context().getService(CommandService.class);
+        cmdService.run(CellsPlugin.class, true).get();
+      }
+      if (CellsPlugin.instance == null) {
+        uiService.showDialog("Open the image the checkpoint was saved for first.");
+        return;
+      }
+      CellsPlugin.instance.resumeTracking(checkpoint);
+    } catch (Exception e) {
+      uiService.showDialog("Something went wrong... :(");
+      e.printStackTrace();
+    }
+  }
+}
@@ -1,9 +1,12 @@
 package dev.mtbt.cells.skeleton;
 
+import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.gui.ImageRoi;
 import ij.gui.Overlay;
 import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
 
 import java.awt.Point;
 import java.awt.Component;
@@ -12,25 +15,45 @@ import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 import javax.swing.BoxLayout;
 import javax.swing.JComponent;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
+import dev.mtbt.imagej.GaussianScaleSpace;
 import dev.mtbt.imagej.HyperstackHelper;
 import dev.mtbt.util.Geometry;
 import dev.mtbt.cells.CellCollection;
 import dev.mtbt.cells.AbstractCellFrame;
 import dev.mtbt.cells.ICellsPluginStep;
+import dev.mtbt.graph.Graph;
 import dev.mtbt.graph.Vertex;
 import dev.mtbt.gui.ExpandablePanel;
+import dev.mtbt.gui.RunnableButton;
 import dev.mtbt.gui.RunnableCheckBox;
 import dev.mtbt.gui.RunnableSpinner;
 import dev.mtbt.util.Pair;
+import dev.mtbt.util.Parallel;
 import dev.mtbt.vendor.shapeindex.ShapeIndexMap;
 
 public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
   static private SkeletonPluginCache cache;
+  static private SkeletonDiskCache diskCache;
+  static private final String DISK_CACHE_PREF = "mtbt.skeleton.diskCache";
+  static protected final int PREFETCH_FRAMES = 3;
+  /**
+   * Blurred frames and levels per frame cached at most, fewer are cached when they do not fit into
+   * {@link #SCALE_SPACE_MEMORY} of the heap, see {@link #getScaleSpaceBudget(int)}
+   */
+  static private final int SCALE_SPACE_FRAMES = PREFETCH_FRAMES + 1;
+  static private final int SCALE_SPACE_LEVELS = 6;
+  static private final double SCALE_SPACE_MEMORY = 0.125;
 
   private boolean initialized = false;
   protected ImagePlus imp;
@@ -41,6 +64,23 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
   protected RunnableSpinner thresholdSlider;
   protected RunnableCheckBox shapeIndexCheckBox;
   protected RunnableCheckBox skeletonCheckBox;
+  protected RunnableCheckBox nativeEngineCheckBox;
+  protected RunnableCheckBox diskCacheCheckBox;
+
+  private ExecutorService prefetchExecutor;
+  private volatile Thread prefetchThread;
+  /**
+   * Pending background computations by skeleton id
+   */
+  private final Map<String, Future<Skeleton>> prefetches = new ConcurrentHashMap<>();
+  /**
+   * Read by prefetch thread, mirrors {@link #diskCacheCheckBox}
+   */
+  private volatile boolean diskCacheEnabled;
+  /**
+   * Set while settings are changed programmatically, see {@link #withoutPreview(Runnable)}
+   */
+  private boolean previewMuted = false;
 
   protected AbstractSkeletonBasedStep() {
   }
@@ -78,6 +118,17 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
     addCenteredComponent(advancedPanel, this.shapeIndexCheckBox);
     this.skeletonCheckBox = new RunnableCheckBox("show skeleton", this::preview);
     addCenteredComponent(advancedPanel, this.skeletonCheckBox);
+    this.nativeEngineCheckBox = new RunnableCheckBox("native 2D skeletonization", this::preview);
+    addCenteredComponent(advancedPanel, this.nativeEngineCheckBox);
+    this.diskCacheEnabled = Prefs.getBoolean(DISK_CACHE_PREF, false);
+    this.diskCacheCheckBox = new RunnableCheckBox("cache on disk", () -> {
+      this.diskCacheEnabled = this.diskCacheCheckBox.isSelected();
+      Prefs.set(DISK_CACHE_PREF, this.diskCacheEnabled);
+    });
+    this.diskCacheCheckBox.setSelected(this.diskCacheEnabled);
+    addCenteredComponent(advancedPanel, this.diskCacheCheckBox);
+    addCenteredComponent(advancedPanel,
+        new RunnableButton("clear disk cache", this::onClearDiskCacheClick));
 
     ExpandablePanel expandablePanel = new ExpandablePanel("advanced settings >>", advancedPanel);
     addCenteredComponent(this.dialogContent, expandablePanel);
@@ -85,54 +136,287 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
     return this.dialogContent;
   }
 
+  /**
+   * Enables or disables settings of the step, they must not change while tracking in the
+   * background
+   */
+  protected void setSettingsEnabled(boolean enabled) {
+    this.blurRadiusSlider.setEnabled(enabled);
+    this.thresholdSlider.setEnabled(enabled);
+    this.nativeEngineCheckBox.setEnabled(enabled);
+  }
+
+  protected boolean isInitialized() {
+    return this.initialized;
+  }
+
   protected void addCenteredComponent(JPanel panel, JComponent component) {
     component.setAlignmentX(Component.CENTER_ALIGNMENT);
     panel.add(component);
   }
 
-  private String getIndexMapId() {
-    int slice = this.imp.getSlice();
-    int channel = this.imp.getChannel();
-    int frame = this.imp.getT();
-    double blur = (double) blurRadiusSlider.getValue();
-    return slice + ";" + channel + ";" + frame + ";" + blur;
+  /**
+   * Frame coordinates and settings of the current preview
+   */
+  protected SkeletonRequest getSkeletonRequest() {
+    return this.getSkeletonRequest(this.imp.getT());
+  }
+
+  /**
+   * Current settings applied to another time frame of the current channel and slice
+   */
+  protected SkeletonRequest getSkeletonRequest(int frame) {
+    return new SkeletonRequest(this.imp.getChannel(), this.imp.getSlice(), frame,
+        (double) blurRadiusSlider.getValue(), (double) thresholdSlider.getValue(),
+        this.getSkeletonEngine());
   }
 
-  private String getSkeletonId() {
-    double threshold = (double) thresholdSlider.getValue();
-    return this.getIndexMapId() + ";" + threshold;
+  protected Skeleton.Engine getSkeletonEngine() {
+    return this.nativeEngineCheckBox.isSelected() ? Skeleton.Engine.Native
+        : Skeleton.Engine.AnalyzeSkeleton;
   }
 
   protected Skeleton getSkeleton() {
-    String sId = this.getSkeletonId();
+    return this.getSkeleton(this.getSkeletonRequest());
+  }
+
+  /**
+   * Returns skeleton from the cache, waits for it if it is being prefetched or computes it. Does
+   * not touch the GUI, so it can be called from any thread.
+   */
+  private Skeleton getSkeleton(SkeletonRequest request) {
+    String sId = request.getSkeletonId();
     Skeleton skeleton = AbstractSkeletonBasedStep.cache.getSkeleton(sId);
-    if (skeleton == null) {
-      skeleton = new Skeleton(this.getShapeIndexMap().duplicate());
-      AbstractSkeletonBasedStep.cache.setSkeleton(sId, skeleton);
+    if (skeleton != null) {
+      return skeleton;
+    }
+    Future<Skeleton> prefetched = this.prefetches.get(sId);
+    if (prefetched != null && !prefetched.isCancelled()
+        && Thread.currentThread() != this.prefetchThread) {
+      try {
+        return prefetched.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } catch (ExecutionException | CancellationException e) {
+        // compute it below
+      }
+    }
+    ImagePlus shapeIndexMap = this.getShapeIndexMap(request);
+    SkeletonDiskCache disk = this.getDiskCache();
+    String frameHash = disk != null ? this.getFrameHash(request) : null;
+    Graph graph = disk != null
+        ? disk.getSkeletonGraph(frameHash, request.blur, request.threshold, request.engine)
+        : null;
+    if (graph != null) {
+      skeleton = new Skeleton(shapeIndexMap, graph);
+    } else {
+      // when only the threshold differs, update skeleton of the same shape index map
+      Skeleton similar = AbstractSkeletonBasedStep.cache
+          .getSkeletonOfIndexMap(request.getIndexMapId(), request.engine);
+      skeleton = similar != null && similar.isIncrementallyUpdatable()
+          ? new Skeleton(shapeIndexMap, similar)
+          : new Skeleton(shapeIndexMap, request.engine);
+      if (disk != null) {
+        disk.setSkeletonGraph(frameHash, request.blur, request.threshold, request.engine,
+            skeleton);
+      }
     }
+    AbstractSkeletonBasedStep.cache.setSkeleton(sId, skeleton);
     return skeleton;
   }
 
-  private ImagePlus getShapeIndexMap() {
-    String simId = this.getIndexMapId();
-    double blur = (double) blurRadiusSlider.getValue();
-    ImagePlus indexMap = AbstractSkeletonBasedStep.cache.getIndexMap(simId);
-    if (indexMap == null) {
-      indexMap = ShapeIndexMap.getShapeIndexMap(this.getOriginalFrame(), blur);
-      AbstractSkeletonBasedStep.cache.setIndexMap(simId, indexMap);
+  /**
+   * Disk cache if enabled by the user
+   */
+  private SkeletonDiskCache getDiskCache() {
+    if (!this.diskCacheEnabled) {
+      return null;
+    }
+    synchronized (AbstractSkeletonBasedStep.class) {
+      if (AbstractSkeletonBasedStep.diskCache == null) {
+        AbstractSkeletonBasedStep.diskCache =
+            new SkeletonDiskCache(SkeletonDiskCache.getDefaultDirectory());
+      }
+      return AbstractSkeletonBasedStep.diskCache;
+    }
+  }
+
+  private void onClearDiskCacheClick() {
+    if (IJ.showMessageWithCancel("Clear disk cache",
+        "Delete all shape index maps and skeletons cached in\n"
+            + SkeletonDiskCache.getDefaultDirectory() + "?")) {
+      synchronized (AbstractSkeletonBasedStep.class) {
+        if (AbstractSkeletonBasedStep.diskCache == null) {
+          AbstractSkeletonBasedStep.diskCache =
+              new SkeletonDiskCache(SkeletonDiskCache.getDefaultDirectory());
+        }
+        AbstractSkeletonBasedStep.diskCache.clear();
+      }
+    }
+  }
+
+  /**
+   * Content hash of the requested plane, the key of disk cache entries
+   */
+  private String getFrameHash(SkeletonRequest request) {
+    String fId = request.getFrameId();
+    String hash = AbstractSkeletonBasedStep.cache.getFrameHash(fId);
+    if (hash == null) {
+      synchronized (this.imp.getStack()) {
+        hash = SkeletonDiskCache.hash(HyperstackHelper.getPlaneProcessor(this.imp,
+            request.channel, request.slice, request.frame));
+      }
+      AbstractSkeletonBasedStep.cache.setFrameHash(fId, hash);
+    }
+    return hash;
+  }
+
+  protected ImagePlus getShapeIndexMap() {
+    return this.getShapeIndexMap(this.getSkeletonRequest());
+  }
+
+  /**
+   * Returns thresholded shape index map of the requested frame. The image is shared through the
+   * cache and must not be modified.
+   */
+  private ImagePlus getShapeIndexMap(SkeletonRequest request) {
+    String sId = request.getThresholdedIndexMapId();
+    ImagePlus thresholded = AbstractSkeletonBasedStep.cache.getThresholdedIndexMap(sId);
+    if (thresholded == null) {
+      String simId = request.getIndexMapId();
+      ImagePlus indexMap = AbstractSkeletonBasedStep.cache.getIndexMap(simId);
+      if (indexMap == null) {
+        SkeletonDiskCache disk = this.getDiskCache();
+        String frameHash = disk != null ? this.getFrameHash(request) : null;
+        FloatProcessor map = disk != null ? disk.getIndexMap(frameHash, request.blur) : null;
+        if (map == null) {
+          ImageProcessor blurred = this.getScaleSpace(request).get(request.blur);
+          map = computeShapeIndexMap(blurred, Prefs.getThreads());
+          if (disk != null) {
+            disk.setIndexMap(frameHash, request.blur, map);
+          }
+        }
+        indexMap = new ImagePlus("Shape index of " + this.imp.getTitle(), map);
+        AbstractSkeletonBasedStep.cache.setIndexMap(simId, indexMap);
+      }
+      thresholded = thresholdShapeIndexMap(indexMap, request.threshold);
+      AbstractSkeletonBasedStep.cache.setThresholdedIndexMap(sId, thresholded);
+    }
+    return thresholded;
+  }
+
+  /**
+   * Returns blurred versions of the requested frame. Moving the blur spinner only blurs
+   * incrementally from the closest smaller anchor radius of the scale space.
+   */
+  private GaussianScaleSpace getScaleSpace(SkeletonRequest request) {
+    String fId = request.getFrameId();
+    GaussianScaleSpace scaleSpace = AbstractSkeletonBasedStep.cache.getScaleSpace(fId);
+    if (scaleSpace == null) {
+      ImageProcessor plane;
+      // virtual stacks read planes from disk and are not safe for concurrent access
+      synchronized (this.imp.getStack()) {
+        plane = HyperstackHelper.getPlaneProcessor(this.imp, request.channel, request.slice,
+            request.frame);
+      }
+      scaleSpace = createScaleSpace(plane);
+      AbstractSkeletonBasedStep.cache.setScaleSpace(fId, scaleSpace);
+    }
+    return scaleSpace;
+  }
+
+  /**
+   * Blurred versions of a plane. {@link TrackingPipeline} blurs through it as well, so it computes
+   * the same shape index maps as the steps.
+   */
+  static GaussianScaleSpace createScaleSpace(ImageProcessor plane) {
+    int budget = getScaleSpaceBudget(plane.getPixelCount());
+    return new GaussianScaleSpace(plane, Math.max(2, budget / getScaleSpaceFrames(budget)));
+  }
+
+  /**
+   * Number of float levels of frames with given pixel count that fit into
+   * {@link #SCALE_SPACE_MEMORY} of the heap, at least an anchor and one level of a single frame and
+   * at most {@link #SCALE_SPACE_FRAMES} times {@link #SCALE_SPACE_LEVELS}
+   */
+  static int getScaleSpaceBudget(int pixelCount) {
+    long maxMemory = IJ.maxMemory() > 0 ? IJ.maxMemory() : Runtime.getRuntime().maxMemory();
+    long levels = (long) (maxMemory * SCALE_SPACE_MEMORY) / (4L * Math.max(1, pixelCount));
+    return (int) Math.max(2, Math.min(levels, SCALE_SPACE_FRAMES * SCALE_SPACE_LEVELS));
+  }
+
+  private static int getScaleSpaceFrames(int budget) {
+    return Math.max(1, Math.min(SCALE_SPACE_FRAMES, budget / 2));
+  }
+
+  /**
+   * Shape index map of a blurred plane. Its display range scales the map before skeletonization,
+   * it is the whole range of the shape index, so it does not depend on content or crop of the plane.
+   */
+  static FloatProcessor computeShapeIndexMap(ImageProcessor blurred, int parallelism) {
+    FloatProcessor map = (FloatProcessor) ShapeIndexMap.getShapeIndex(blurred, parallelism);
+    map.setMinAndMax(-1, 1);
+    return map;
+  }
+
+  static ImagePlus thresholdShapeIndexMap(ImagePlus input, double threshold) {
+    FloatProcessor source = (FloatProcessor) input.getProcessor();
+    float[] pixels = (float[]) source.getPixels();
+    float[] thresholded = new float[pixels.length];
+    for (int i = 0; i < pixels.length; i++) {
+      float val = pixels[i];
+      thresholded[i] = val > threshold ? val : Float.NEGATIVE_INFINITY;
+    }
+    FloatProcessor fp = new FloatProcessor(source.getWidth(), source.getHeight(), thresholded);
+    // keep display range of the source map, it scales the map before skeletonization
+    fp.setMinAndMax(source.getMin(), source.getMax());
+    return new ImagePlus(input.getTitle(), fp);
+  }
+
+  /**
+   * Computes skeletons of the requested frames on a background thread. Pending prefetches of
+   * frames or settings that are not requested anymore are cancelled.
+   */
+  protected void prefetchSkeletons(List<SkeletonRequest> requests) {
+    List<String> ids = requests.stream().map(SkeletonRequest::getSkeletonId)
+        .collect(Collectors.toList());
+    this.prefetches.entrySet().removeIf(entry -> {
+      if (entry.getValue().isDone()) {
+        return true;
+      }
+      if (!ids.contains(entry.getKey())) {
+        entry.getValue().cancel(false);
+        return true;
+      }
+      return false;
+    });
+    for (SkeletonRequest request : requests) {
+      String sId = request.getSkeletonId();
+      if (AbstractSkeletonBasedStep.cache.getSkeleton(sId) == null
+          && !this.prefetches.containsKey(sId)) {
+        this.prefetches.put(sId, this.getPrefetchExecutor().submit(() -> {
+          this.prefetchThread = Thread.currentThread();
+          return this.getSkeleton(request);
+        }));
+      }
     }
-    return thresholdShapeIndexMap(indexMap);
   }
 
-  private ImagePlus thresholdShapeIndexMap(ImagePlus input) {
-    ImagePlus impIndexMap = input.duplicate();
-    FloatProcessor fp = (FloatProcessor) impIndexMap.getProcessor();
-    int length = impIndexMap.getProcessor().getPixelCount();
-    for (int i = 0; i < length; i++) {
-      float val = fp.getf(i);
-      fp.setf(i, val > (double) thresholdSlider.getValue() ? val : Float.NEGATIVE_INFINITY);
+  protected void cancelPrefetches() {
+    this.prefetches.values().forEach(future -> future.cancel(false));
+    this.prefetches.clear();
+  }
+
+  private ExecutorService getPrefetchExecutor() {
+    if (this.prefetchExecutor == null) {
+      this.prefetchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "skeleton-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+      });
     }
-    return impIndexMap;
+    return this.prefetchExecutor;
   }
 
   protected ImagePlus getOriginalFrame() {
@@ -160,11 +444,35 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
   }
 
   public void preview() {
-    this.imp.updateAndDraw();
+    if (!this.previewMuted) {
+      this.imp.updateAndDraw();
+    }
+  }
+
+  /**
+   * Runs changes of settings or position on the GUI thread without the previews and prefetches
+   * every single change would trigger
+   */
+  protected void withoutPreview(Runnable change) {
+    this.previewMuted = true;
+    try {
+      change.run();
+    } finally {
+      this.previewMuted = false;
+    }
+  }
+
+  protected boolean isPreviewMuted() {
+    return this.previewMuted;
   }
 
   @Override
   public void cleanup() {
+    this.cancelPrefetches();
+    if (this.prefetchExecutor != null) {
+      this.prefetchExecutor.shutdownNow();
+      this.prefetchExecutor = null;
+    }
     if (this.imp != null) {
       this.removeImageOverlay();
     }
@@ -180,40 +488,69 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
       return new ArrayList<Spine>();
     }
 
-    ArrayList<Pair<Point, Spine>> spines =
-        points.stream().map(point -> new Pair<>(point, this.performSearch(point)))
-            .collect(Collectors.toCollection(ArrayList::new));
+    // skeleton is read-only, so spines of all points are grown in parallel
+    Skeleton skeleton = this.getSkeleton();
+    Spine[] found = new Spine[points.size()];
+    Parallel.forEach(Prefs.getThreads(), points.size(),
+        i -> found[i] = skeleton.findSpine(points.get(i)));
+    ArrayList<Pair<Point, Spine>> spines = new ArrayList<>();
+    for (int i = 0; i < found.length; i++) {
+      spines.add(new Pair<>(points.get(i), found[i]));
+    }
 
     return this.fixConflicts(spines).stream().map(pair -> pair.getValue())
         .collect(Collectors.toCollection(ArrayList::new));
   }
 
   protected List<Pair<Point, Spine>> fixConflicts(List<Pair<Point, Spine>> spines) {
+    return fixConflicts(spines, this.getSkeleton(),
+        (FloatProcessor) this.getShapeIndexMap().getProcessor());
+  }
+
+  /**
+   * @param shapeIndexMap thresholded shape index map the skeleton was computed from
+   */
+  static List<Pair<Point, Spine>> fixConflicts(List<Pair<Point, Spine>> spines, Skeleton skeleton,
+      FloatProcessor shapeIndexMap) {
+    float[] pixels = (float[]) shapeIndexMap.getPixels();
+    int width = shapeIndexMap.getWidth();
     SpineConflictsResolver.fixConflicts(
         spines.stream().map(p -> new Pair<>(new dev.mtbt.graph.Point(p.getKey()), p.getValue()))
             .collect(Collectors.toList()),
-        p -> this.getShapeIndexMap().getProcessor().getf(p.x, p.y), new WeakestSlabEdgeEvaluator(
-            this.getShapeIndexMap().getProcessor().convertToFloatProcessor()));
+        p -> pixels[p.y * width + p.x], skeleton.getEdgeEvaluator());
     return spines;
   }
 
   protected AbstractCellFrame spineToCellFrame(Spine spine) {
+    return spineToCellFrame(spine, (FloatProcessor) this.getShapeIndexMap().getProcessor(),
+        (double) thresholdSlider.getValue());
+  }
+
+  /**
+   * Cell frame of the spine, ends of the spine on leaves of the skeleton are extended to the end
+   * of the blob
+   */
+  static AbstractCellFrame spineToCellFrame(Spine spine, FloatProcessor shapeIndexMap,
+      double threshold) {
     List<Point2D> polyline = spine.toPolyline();
     if (polyline.size() >= 2) {
       Vertex sv1 = spine.getE1().getSkeletonVertex();
       Vertex sv2 = spine.getE2().getSkeletonVertex();
       if (sv1 != null && sv1.isLeaf()) {
-        polyline.set(0, tryExtendLineToBlobEnd(polyline.get(1), polyline.get(0)));
+        polyline.set(0,
+            tryExtendLineToBlobEnd(polyline.get(1), polyline.get(0), shapeIndexMap, threshold));
       }
       if (sv2 != null && sv2.isLeaf()) {
         int last = polyline.size() - 1;
-        polyline.set(last, tryExtendLineToBlobEnd(polyline.get(last - 1), polyline.get(last)));
+        polyline.set(last, tryExtendLineToBlobEnd(polyline.get(last - 1), polyline.get(last),
+            shapeIndexMap, threshold));
       }
     }
     return new PolylineCellFrame(polyline);
   }
 
-  private Point2D tryExtendLineToBlobEnd(Point2D lineBegin, Point2D lineEnd) {
+  private static Point2D tryExtendLineToBlobEnd(Point2D lineBegin, Point2D lineEnd,
+      FloatProcessor fp, double threshold) {
     int searchRadius = 20;
     // vector
     double vx = lineEnd.getX() - lineBegin.getX();
@@ -225,10 +562,11 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
     Point2D searchEnd =
         new Point2D.Double(lineEnd.getX() + vx * searchRadius, lineEnd.getY() + vy * searchRadius);
     List<Point> line = Geometry.rasterizeLine(lineEnd, searchEnd);
-    double threshold = (double) thresholdSlider.getValue();
+    float[] pixels = (float[]) fp.getPixels();
+    int width = fp.getWidth();
     for (int index = 0; index < line.size(); index++) {
       Point point = line.get(index);
-      if (this.getShapeIndexMap().getProcessor().getf(point.x, point.y) <= threshold) {
+      if (pixels[point.y * width + point.x] <= threshold) {
         return index > 0 ? line.get(index - 1) : lineEnd;
       }
     }
@@ -237,7 +575,7 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
 
   @Override
   public void imageUpdated() {
-    if (this.initialized) {
+    if (this.initialized && !this.previewMuted) {
       AbstractSkeletonBasedStep.cache.updateCache(this.imp);
       this.removeImageOverlay();
       if (this.skeletonCheckBox.isSelected()) {
@@ -248,6 +586,48 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
     }
   }
 
+  /**
+   * Frame coordinates and settings identifying a skeleton. Captured on the GUI thread, so the
+   * skeleton can be computed on any thread.
+   */
+  protected static class SkeletonRequest {
+    final int channel;
+    final int slice;
+    final int frame;
+    final double blur;
+    final double threshold;
+    final Skeleton.Engine engine;
+
+    SkeletonRequest(int channel, int slice, int frame, double blur, double threshold,
+        Skeleton.Engine engine) {
+      this.channel = channel;
+      this.slice = slice;
+      this.frame = frame;
+      this.blur = blur;
+      this.threshold = threshold;
+      this.engine = engine;
+    }
+
+    String getFrameId() {
+      return slice + ";" + channel + ";" + frame;
+    }
+
+    String getIndexMapId() {
+      return this.getFrameId() + ";" + blur;
+    }
+
+    String getThresholdedIndexMapId() {
+      return this.getIndexMapId() + ";" + threshold;
+    }
+
+    String getSkeletonId() {
+      return this.getThresholdedIndexMapId() + ";" + engine;
+    }
+  }
+
+  /**
+   * Caches are shared with background prefetching, access is synchronized
+   */
   private class SkeletonPluginCache {
     private int impId;
     private LinkedHashMap<String, ImagePlus> indexMaps = new LinkedHashMap<String, ImagePlus>() {
@@ -256,18 +636,41 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
         return this.size() > 15;
       }
     };
+    private final int scaleSpaceFrames;
+    private LinkedHashMap<String, GaussianScaleSpace> scaleSpaces =
+        new LinkedHashMap<String, GaussianScaleSpace>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, GaussianScaleSpace> eldest) {
+            return this.size() > scaleSpaceFrames;
+          }
+        };
+    private LinkedHashMap<String, ImagePlus> thresholdedIndexMaps =
+        new LinkedHashMap<String, ImagePlus>() {
+          @Override
+          protected boolean removeEldestEntry(Map.Entry<String, ImagePlus> eldest) {
+            return this.size() > 15;
+          }
+        };
     private LinkedHashMap<String, Skeleton> skeletons = new LinkedHashMap<String, Skeleton>() {
       @Override
       protected boolean removeEldestEntry(Map.Entry<String, Skeleton> eldest) {
         return this.size() > 15;
       }
     };
+    private LinkedHashMap<String, String> frameHashes = new LinkedHashMap<String, String>() {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+        return this.size() > 100;
+      }
+    };
     public int slice;
     public int channel;
     public int frame;
 
     public SkeletonPluginCache(ImagePlus originalImp) {
       this.impId = originalImp.getID();
+      this.scaleSpaceFrames = getScaleSpaceFrames(
+          getScaleSpaceBudget(originalImp.getWidth() * originalImp.getHeight()));
     }
 
     public boolean isTarget(ImagePlus originalImp) {
@@ -280,19 +683,57 @@ public abstract class AbstractSkeletonBasedStep implements ICellsPluginStep {
       this.frame = preview.getT();
     }
 
-    public ImagePlus getIndexMap(String id) {
+    public synchronized ImagePlus getIndexMap(String id) {
       return this.indexMaps.get(id);
     }
 
-    public void setIndexMap(String id, ImagePlus imp) {
+    public synchronized void setIndexMap(String id, ImagePlus imp) {
       this.indexMaps.put(id, imp);
     }
 
-    public Skeleton getSkeleton(String id) {
+    public synchronized GaussianScaleSpace getScaleSpace(String id) {
+      return this.scaleSpaces.get(id);
+    }
+
+    public synchronized void setScaleSpace(String id, GaussianScaleSpace scaleSpace) {
+      this.scaleSpaces.put(id, scaleSpace);
+    }
+
+    public synchronized ImagePlus getThresholdedIndexMap(String id) {
+      return this.thresholdedIndexMaps.get(id);
+    }
+
+    public synchronized void setThresholdedIndexMap(String id, ImagePlus imp) {
+      this.thresholdedIndexMaps.put(id, imp);
+    }
+
+    public synchronized String getFrameHash(String id) {
+      return this.frameHashes.get(id);
+    }
+
+    public synchronized void setFrameHash(String id, String hash) {
+      this.frameHashes.put(id, hash);
+    }
+
+    public synchronized Skeleton getSkeleton(String id) {
       return this.skeletons.get(id);
     }
 
-    public void setSkeleton(String id, Skeleton skeleton) {
+    /**
+     * Most recently cached skeleton of given shape index map and engine (any threshold)
+     */
+    public synchronized Skeleton getSkeletonOfIndexMap(String indexMapId, Skeleton.Engine engine) {
+      Skeleton result = null;
+      for (Map.Entry<String, Skeleton> entry : this.skeletons.entrySet()) {
+        if (entry.getKey().startsWith(indexMapId + ";")
+            && entry.getKey().endsWith(";" + engine)) {
+          result = entry.getValue();
+        }
+      }
+      return result;
+    }
+
+    public synchronized void setSkeleton(String id, Skeleton skeleton) {
       this.skeletons.put(id, skeleton);
     }
   }
@@ -0,0 +1,174 @@
+package dev.mtbt.cells.skeleton;
+
+import dev.mtbt.cells.AbstractCellFrame;
+import dev.mtbt.cells.Cell;
+import dev.mtbt.util.Geometry;
+import dev.mtbt.util.Pair;
+import dev.mtbt.util.Parallel;
+import ij.process.FloatProcessor;
+import java.awt.Point;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Finds successors of cells in the skeleton of the next frame. Used by
+ * {@link SkeletonCellLifeTracker} and {@link TrackingPipeline}, so both produce the same lineage.
+ */
+class CellSuccessorsFinder {
+  private final Skeleton skeleton;
+  private final FloatProcessor shapeIndexMap;
+  private final double threshold;
+  private final int parallelism;
+
+  /**
+   * @param skeleton skeleton of the next frame
+   * @param shapeIndexMap thresholded shape index map the skeleton was computed from
+   */
+  CellSuccessorsFinder(Skeleton skeleton, FloatProcessor shapeIndexMap, double threshold,
+      int parallelism) {
+    this.skeleton = skeleton;
+    this.shapeIndexMap = shapeIndexMap;
+    this.threshold = threshold;
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Candidate spines of cells in order of cells. Candidates of cells are independent, they are
+   * searched in parallel on the read-only skeleton and merged in order of cells, so the result does
+   * not depend on scheduling.
+   *
+   * @param cells cells in frame (frameIndex - 1)
+   */
+  LinkedHashMap<Cell, List<Pair<Point2D, Spine>>> findCandidates(List<Cell> cells,
+      int frameIndex) {
+    List<List<Pair<Point2D, Spine>>> candidates =
+        new ArrayList<>(Collections.nCopies(cells.size(), null));
+    Parallel.forEach(this.parallelism, cells.size(), i -> candidates.set(i,
+        this.successorCandidates(cells.get(i).getFrame(frameIndex - 1))));
+    LinkedHashMap<Cell, List<Pair<Point2D, Spine>>> successors = new LinkedHashMap<>();
+    for (int i = 0; i < cells.size(); i++) {
+      successors.put(cells.get(i), candidates.get(i));
+    }
+    return successors;
+  }
+
+  /**
+   * Fixes conflicts between candidates and sets them as next frames or children of the cells
+   */
+  void resolve(LinkedHashMap<Cell, List<Pair<Point2D, Spine>>> successors, int frameIndex) {
+    AbstractSkeletonBasedStep.fixConflicts(
+        successors.values().stream().flatMap(l -> l.stream())
+            .map(p -> new Pair<>(Geometry.toAwtPoint(p.getKey()), p.getValue()))
+            .collect(Collectors.toList()),
+        this.skeleton, this.shapeIndexMap);
+
+    successors.forEach((cell, list) -> {
+      if (list.size() < 2) {
+        AbstractCellFrame prevCellFrame = cell.getFrame(frameIndex - 1);
+        this.ensureValidSuccessorDirection(prevCellFrame, list.get(0).getValue());
+        cell.setFrame(frameIndex, this.spineToCellFrame(list.get(0).getValue()));
+      } else {
+        this.ensureValidSiblingsDirections(
+            list.stream().map(Pair::getValue).collect(Collectors.toList()));
+        Cell c1 = new Cell(frameIndex, this.spineToCellFrame(list.get(0).getValue()));
+        Cell c2 = new Cell(frameIndex, this.spineToCellFrame(list.get(1).getValue()));
+        cell.setChildren(c1, c2);
+      }
+    });
+  }
+
+  private AbstractCellFrame spineToCellFrame(Spine spine) {
+    return AbstractSkeletonBasedStep.spineToCellFrame(spine, this.shapeIndexMap, this.threshold);
+  }
+
+  private void ensureValidSuccessorDirection(AbstractCellFrame cellFrame, Spine successor) {
+    double bb = cellFrame.getBegin().distance(successor.getBegin());
+    double be = cellFrame.getBegin().distance(successor.getEnd());
+    double eb = cellFrame.getEnd().distance(successor.getBegin());
+    double ee = cellFrame.getEnd().distance(successor.getEnd());
+    double min = Math.min(bb, Math.min(be, Math.min(eb, ee)));
+
+    if (bb != min && ee != min) {
+      successor.reverse();
+    }
+  }
+
+  // Ensure that closest vertices are called "end"
+  private void ensureValidSiblingsDirections(List<Spine> list) {
+    if (list.size() != 2)
+      throw new IllegalArgumentException();
+    Spine s1 = list.get(0);
+    Spine s2 = list.get(1);
+
+    double bb = s1.getBegin().distance(s2.getBegin());
+    double be = s1.getBegin().distance(s2.getEnd());
+    double eb = s1.getEnd().distance(s2.getBegin());
+    double ee = s1.getEnd().distance(s2.getEnd());
+    double min = Math.min(bb, Math.min(be, Math.min(eb, ee)));
+
+    if (bb == min) {
+      s1.reverse();
+      s2.reverse();
+    } else if (be == min) {
+      s1.reverse();
+    } else if (eb == min) {
+      s2.reverse();
+    }
+  }
+
+  /**
+   * Next spines of a cell frame, one or two when the cell divides. Reads the skeleton only, so it
+   * runs concurrently for different cells.
+   */
+  private List<Pair<Point2D, Spine>> successorCandidates(AbstractCellFrame frame) {
+    // generate spines for some points on previous spine frame
+    // get generated spine that is closest to all points
+    List<Double> ratioCandidates = Arrays.asList(0.2, 0.4, 0.6, 0.8);
+    List<Point2D> pointCandidates = ratioCandidates.stream()
+        .map(ratio -> frame.pointAlongLine(ratio)).collect(Collectors.toList());
+    Pair<Point2D, Spine> nextSpine = this.bestCandidateForNewSpine(pointCandidates);
+    List<Pair<Point2D, Spine>> nextSpines = new ArrayList<>(Arrays.asList(nextSpine));
+
+    int candidateIndex = pointCandidates.indexOf(nextSpine.getKey());
+    double nextSpineLength = Geometry.polylineLength(nextSpine.getValue().toPolyline());
+    double prevSpineLength = frame.getLength();
+
+    int nRatios = ratioCandidates.size();
+    if (nextSpineLength < 0.9 * prevSpineLength) {
+      List<Double> oppositeRatios;
+      if ((double) candidateIndex >= nRatios / 2.0) {
+        oppositeRatios = ratioCandidates.subList(0, nRatios / 2);
+      } else {
+        oppositeRatios = ratioCandidates.subList((int) Math.ceil(nRatios / 2.0), nRatios);
+      }
+
+      List<Point2D> oppositePointCandidates = oppositeRatios.stream()
+          .map(ratio -> frame.pointAlongLine(ratio)).collect(Collectors.toList());
+      Pair<Point2D, Spine> anotherNextSpine =
+          this.bestCandidateForNewSpine(oppositePointCandidates);
+
+      if (!nextSpine.getValue().equals(anotherNextSpine.getValue())) {
+        nextSpines.add(anotherNextSpine);
+        if ((double) candidateIndex < nRatios / 2.0) {
+          Collections.reverse(nextSpines);
+        }
+      }
+    }
+    return nextSpines;
+  }
+
+  private Pair<Point2D, Spine> bestCandidateForNewSpine(List<Point2D> pointCandidates) {
+    return pointCandidates.stream().map(point2d -> {
+      Point point = Geometry.toAwtPoint(point2d);
+      Spine spine = this.skeleton.findSpine(point);
+      double score = pointCandidates.stream().reduce(0.0,
+          (acc, candidate) -> acc + point2d.distance(candidate), (v0, v1) -> v0 + v1);
+      return new Pair<>(new Pair<>(point2d, spine), score);
+    }).min((s0, s1) -> Double.compare(s0.getValue(), s1.getValue())).get().getKey();
+  }
+}
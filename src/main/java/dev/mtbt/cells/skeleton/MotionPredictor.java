@@ -0,0 +1,113 @@
+package dev.mtbt.cells.skeleton;
+
+import dev.mtbt.cells.AbstractCellFrame;
+import dev.mtbt.cells.Cell;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Predicts regions of a later frame that contain cells, so only those regions have to be
+ * skeletonized.
+ * <p>
+ * Every cell keeps the velocity of its middle point and the growth rate of its length measured
+ * between its last two frames. Cells without a previous frame of their own (e.g. just divided) are
+ * expected to stay in place. A region covers the last and the predicted polyline of a cell with a
+ * padding for prediction errors and blob ends, overlapping or touching regions are merged.
+ */
+class MotionPredictor {
+  static final int PADDING = 20;
+  private static final double MAX_GROWTH = 1.25;
+
+  private MotionPredictor() {
+  }
+
+  /**
+   * @param cells cells in frame `frame`
+   * @param lead number of frames between `frame` and the predicted frame
+   * @return disjoint, not touching regions within width x height
+   */
+  static List<Rectangle> predictRegions(List<Cell> cells, int frame, int lead, int width,
+      int height) {
+    Rectangle image = new Rectangle(width, height);
+    List<Rectangle> boxes = new ArrayList<>();
+    for (Cell cell : cells) {
+      List<Point2D> points = new ArrayList<>(cell.getFrame(frame).toPolyline());
+      points.addAll(predict(cell, frame, lead));
+      Rectangle box = bounds(points);
+      box.grow(PADDING, PADDING);
+      box = box.intersection(image);
+      if (!box.isEmpty()) {
+        boxes.add(box);
+      }
+    }
+    return merge(boxes);
+  }
+
+  /**
+   * Polyline of the cell in frame + lead extrapolated from frames frame - 1 and frame
+   */
+  static List<Point2D> predict(Cell cell, int frame, int lead) {
+    AbstractCellFrame last = cell.getFrame(frame);
+    AbstractCellFrame previous = cell.getFrame(frame - 1);
+    List<Point2D> polyline = last.toPolyline();
+    if (previous == null || last.getLength() == 0 || previous.getLength() == 0) {
+      return polyline;
+    }
+    Point2D center = last.pointAlongLine(0.5);
+    Point2D previousCenter = previous.pointAlongLine(0.5);
+    double dx = (center.getX() - previousCenter.getX()) * lead;
+    double dy = (center.getY() - previousCenter.getY()) * lead;
+    double growth = Math.min(MAX_GROWTH, Math.max(1 / MAX_GROWTH,
+        last.getLength() / previous.getLength()));
+    double scale = Math.pow(growth, lead);
+    List<Point2D> predicted = new ArrayList<>(polyline.size());
+    for (Point2D point : polyline) {
+      predicted.add(new Point2D.Double(
+          center.getX() + dx + (point.getX() - center.getX()) * scale,
+          center.getY() + dy + (point.getY() - center.getY()) * scale));
+    }
+    return predicted;
+  }
+
+  private static Rectangle bounds(List<Point2D> points) {
+    double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+    double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+    for (Point2D point : points) {
+      minX = Math.min(minX, point.getX());
+      minY = Math.min(minY, point.getY());
+      maxX = Math.max(maxX, point.getX());
+      maxY = Math.max(maxY, point.getY());
+    }
+    int x = (int) Math.floor(minX), y = (int) Math.floor(minY);
+    return new Rectangle(x, y, (int) Math.ceil(maxX) - x + 1, (int) Math.ceil(maxY) - y + 1);
+  }
+
+  /**
+   * Replaces overlapping or touching rectangles by their union until none are left
+   */
+  static List<Rectangle> merge(List<Rectangle> boxes) {
+    List<Rectangle> merged = new ArrayList<>();
+    for (Rectangle box : boxes) {
+      Rectangle current = new Rectangle(box);
+      boolean grown = true;
+      while (grown) {
+        grown = false;
+        for (int i = merged.size() - 1; i >= 0; i--) {
+          Rectangle other = merged.get(i);
+          // one pixel larger box also catches rectangles sharing an edge or a corner
+          Rectangle neighborhood = new Rectangle(current);
+          neighborhood.grow(1, 1);
+          if (neighborhood.intersects(other)) {
+            current.add(other);
+            merged.remove(i);
+            grown = true;
+          }
+        }
+      }
+      merged.add(current);
+    }
+    return merged;
+  }
+}
@@ -0,0 +1,500 @@
+package dev.mtbt.cells.skeleton;
+
+import dev.mtbt.graph.Edge;
+import dev.mtbt.graph.Graph;
+import dev.mtbt.graph.Point;
+import dev.mtbt.graph.Vertex;
+import dev.mtbt.util.Parallel;
+import ij.process.ByteProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 2D replacement for Skeletonize3D_ followed by AnalyzeSkeleton_ working on primitive arrays.
+ * <p>
+ * The foreground (non zero pixels) is thinned with the lookup-table form of Zhang-Suen, whose
+ * sub-iterations are computed in parallel row bands. Staircase corners left by Zhang-Suen are then
+ * removed when they are simple points (Yokoi 8-connectivity number equal to 1), so diagonal lines
+ * do not produce spurious junctions. Finally end points, junction clusters and slabs are traced
+ * straight into a {@link Graph}. Pixels are tagged the same way as in AnalyzeSkeleton_ (30 end
+ * point, 70 junction, 127 slab).
+ */
+public class NativeSkeletonizer {
+  public static final byte END_POINT = 30;
+  public static final byte JUNCTION = 70;
+  public static final byte SLAB = 127;
+
+  private static final int ROWS_PER_BAND = 64;
+
+  /**
+   * Zhang-Suen deletion decisions for both sub-iterations indexed by the neighborhood code, bits of
+   * the code are (from the lowest) N, NE, E, SE, S, SW, W, NW
+   */
+  private static final boolean[][] DELETABLE = new boolean[2][256];
+
+  static {
+    for (int code = 0; code < 256; code++) {
+      int count = Integer.bitCount(code);
+      int transitions = 0;
+      for (int k = 0; k < 8; k++) {
+        if ((code >> k & 1) == 0 && (code >> ((k + 1) % 8) & 1) == 1)
+          transitions++;
+      }
+      boolean n = (code & 1) != 0, e = (code & 4) != 0, s = (code & 16) != 0, w = (code & 64) != 0;
+      boolean candidate = count >= 2 && count <= 6 && transitions == 1;
+      DELETABLE[0][code] = candidate && !(n && e && s) && !(e && s && w);
+      DELETABLE[1][code] = candidate && !(n && e && w) && !(n && s && w);
+    }
+  }
+
+  private NativeSkeletonizer() {
+  }
+
+  /**
+   * Skeletonizes the mask, adds the traced vertices and edges to graph and returns the tagged
+   * skeleton image.
+   */
+  public static ByteProcessor skeletonize(ByteProcessor mask, int parallelism, Graph graph) {
+    int w = mask.getWidth(), h = mask.getHeight();
+    byte[] padded = pad((byte[]) mask.getPixels(), w, h);
+    thin(padded, w + 2, h + 2, parallelism);
+    byte[] tags = tag(padded, w + 2, h + 2);
+    trace(tags, w + 2, h + 2, 0, 0, graph);
+    return new ByteProcessor(w, h, unpad(tags, w, h));
+  }
+
+  /**
+   * Skeletonizes the mask only within the regions. Pixels outside of the regions are treated as
+   * background.
+   * <p>
+   * Regions must not overlap nor touch each other, then no 8-connected component spans two of them
+   * and they are skeletonized independently (in parallel) within their bounds. The result is the
+   * same as {@link #skeletonize(ByteProcessor, int, Graph)} of the mask cleared outside regions.
+   */
+  public static ByteProcessor skeletonize(ByteProcessor mask, List<Rectangle> regions,
+      int parallelism, Graph graph) {
+    int w = mask.getWidth(), h = mask.getHeight();
+    byte[] pixels = (byte[]) mask.getPixels();
+    byte[] tags = new byte[w * h];
+    Graph[] fragments = new Graph[regions.size()];
+    Parallel.forEach(parallelism, regions.size(), k -> {
+      Rectangle region = regions.get(k).intersection(new Rectangle(w, h));
+      fragments[k] = new Graph();
+      if (region.isEmpty()) {
+        return;
+      }
+      int bw = region.width + 2, bh = region.height + 2;
+      byte[] crop = new byte[bw * bh];
+      for (int y = 0; y < region.height; y++) {
+        for (int x = 0; x < region.width; x++) {
+          if (pixels[(region.y + y) * w + region.x + x] != 0)
+            crop[(y + 1) * bw + x + 1] = 1;
+        }
+      }
+      thin(crop, bw, bh, 1);
+      byte[] cropTags = tag(crop, bw, bh);
+      trace(cropTags, bw, bh, region.x, region.y, fragments[k]);
+      for (int y = 0; y < region.height; y++) {
+        System.arraycopy(cropTags, (y + 1) * bw + 1, tags, (region.y + y) * w + region.x,
+            region.width);
+      }
+    });
+    for (Graph fragment : fragments) {
+      fragment.getEdges().forEach(graph::addEdge);
+      fragment.getVertices().forEach(graph::addVertex);
+    }
+    return new ByteProcessor(w, h, tags);
+  }
+
+  /**
+   * Skeletonizes the mask reusing skeleton of a similar mask (e.g. the same shape index map with
+   * another threshold). Result is the same as {@link #skeletonize(ByteProcessor, int, Graph)}.
+   * <p>
+   * Thinning, tagging and tracing never look beyond the 8-connected component of a pixel, so
+   * components of the new mask without any changed pixel in or next to them are equal to
+   * components of the previous mask. Their tags are copied and their vertices and edges cloned,
+   * only the remaining components are skeletonized again within their bounding boxes.
+   *
+   * @param previousMask mask the previous skeleton was computed from
+   * @param previousTags tagged image returned for previous mask
+   * @param previousGraph vertices and edges traced for previous mask, they are not modified
+   */
+  public static ByteProcessor update(ByteProcessor previousMask, ByteProcessor previousTags,
+      Graph previousGraph, ByteProcessor mask, int parallelism, Graph graph) {
+    int w = mask.getWidth(), h = mask.getHeight();
+    if (previousMask.getWidth() != w || previousMask.getHeight() != h) {
+      throw new IllegalArgumentException("Masks differ in size");
+    }
+    int W = w + 2;
+    byte[] padded = pad((byte[]) mask.getPixels(), w, h);
+    byte[] previous = pad((byte[]) previousMask.getPixels(), w, h);
+    ComponentLabels components = new ComponentLabels(padded, W, h + 2);
+    int[] labels = components.labels;
+
+    boolean[] affected = new boolean[components.count + 1];
+    for (int i = 0; i < padded.length; i++) {
+      if (padded[i] != previous[i]) {
+        for (int j = i - W - 1; j <= i + W - 1; j += W) {
+          affected[labels[j]] = true;
+          affected[labels[j + 1]] = true;
+          affected[labels[j + 2]] = true;
+        }
+      }
+    }
+
+    byte[] tags = new byte[padded.length];
+    byte[] oldTags = (byte[]) previousTags.getPixels();
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        int label = labels[(y + 1) * W + x + 1];
+        if (label > 0 && !affected[label]) {
+          tags[(y + 1) * W + x + 1] = oldTags[y * w + x];
+        }
+      }
+    }
+
+    Map<Vertex, Vertex> kept = new IdentityHashMap<>();
+    for (Vertex vertex : previousGraph.getVertices()) {
+      Point point = vertex.getPoints().first();
+      int label = labels[(point.y + 1) * W + point.x + 1];
+      if (label > 0 && !affected[label]) {
+        kept.put(vertex, vertex.cloneUnconnected());
+      }
+    }
+    for (Edge edge : previousGraph.getEdges()) {
+      Vertex v1 = kept.get(edge.getV1());
+      if (v1 != null) {
+        graph.addEdge(edge.clone(v1, kept.get(edge.getV2())));
+      }
+    }
+    kept.values().forEach(graph::addVertex);
+
+    List<Integer> changed = new ArrayList<>();
+    for (int label = 1; label <= components.count; label++) {
+      if (affected[label])
+        changed.add(label);
+    }
+    Graph[] fragments = new Graph[changed.size()];
+    Parallel.forEach(parallelism, changed.size(), k -> {
+      int label = changed.get(k);
+      int[] box = components.getBoundingBox(label);
+      // box with one pixel background frame, coordinates in padded image
+      int x0 = box[0] - 1, y0 = box[1] - 1;
+      int bw = box[2] - box[0] + 3, bh = box[3] - box[1] + 3;
+      byte[] crop = new byte[bw * bh];
+      for (int y = 1; y < bh - 1; y++) {
+        for (int x = 1; x < bw - 1; x++) {
+          if (labels[(y0 + y) * W + x0 + x] == label)
+            crop[y * bw + x] = 1;
+        }
+      }
+      thin(crop, bw, bh, 1);
+      byte[] cropTags = tag(crop, bw, bh);
+      fragments[k] = new Graph();
+      trace(cropTags, bw, bh, x0, y0, fragments[k]);
+      for (int y = 1; y < bh - 1; y++) {
+        for (int x = 1; x < bw - 1; x++) {
+          if (cropTags[y * bw + x] != 0)
+            tags[(y0 + y) * W + x0 + x] = cropTags[y * bw + x];
+        }
+      }
+    });
+    for (Graph fragment : fragments) {
+      fragment.getEdges().forEach(graph::addEdge);
+      fragment.getVertices().forEach(graph::addVertex);
+    }
+    return new ByteProcessor(w, h, unpad(tags, w, h));
+  }
+
+  /**
+   * Binary copy of the image with one pixel wide background frame, so neighborhoods never leave the
+   * array
+   */
+  static byte[] pad(byte[] pixels, int w, int h) {
+    int W = w + 2;
+    byte[] padded = new byte[W * (h + 2)];
+    for (int y = 0; y < h; y++) {
+      for (int x = 0; x < w; x++) {
+        padded[(y + 1) * W + x + 1] = pixels[y * w + x] != 0 ? (byte) 1 : 0;
+      }
+    }
+    return padded;
+  }
+
+  static byte[] unpad(byte[] padded, int w, int h) {
+    byte[] pixels = new byte[w * h];
+    for (int y = 0; y < h; y++) {
+      System.arraycopy(padded, (y + 1) * (w + 2) + 1, pixels, y * w, w);
+    }
+    return pixels;
+  }
+
+  private static int code(byte[] img, int i, int W) {
+    return (img[i - W] != 0 ? 1 : 0) | (img[i - W + 1] != 0 ? 2 : 0) | (img[i + 1] != 0 ? 4 : 0)
+        | (img[i + W + 1] != 0 ? 8 : 0) | (img[i + W] != 0 ? 16 : 0)
+        | (img[i + W - 1] != 0 ? 32 : 0) | (img[i - 1] != 0 ? 64 : 0)
+        | (img[i - W - 1] != 0 ? 128 : 0);
+  }
+
+  /**
+   * Thins padded binary image in place
+   */
+  static void thin(byte[] img, int W, int H, int parallelism) {
+    byte[] snapshot = new byte[img.length];
+    int bands = (H - 2 + ROWS_PER_BAND - 1) / ROWS_PER_BAND;
+    int[] changes = new int[bands];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int pass = 0; pass < 2; pass++) {
+        System.arraycopy(img, 0, snapshot, 0, img.length);
+        boolean[] deletable = DELETABLE[pass];
+        Parallel.forEach(parallelism, bands, band -> {
+          int count = 0;
+          int toRow = Math.min(H - 1, 1 + (band + 1) * ROWS_PER_BAND);
+          for (int y = 1 + band * ROWS_PER_BAND; y < toRow; y++) {
+            for (int i = y * W + 1, end = y * W + W - 1; i < end; i++) {
+              if (snapshot[i] != 0 && deletable[code(snapshot, i, W)]) {
+                img[i] = 0;
+                count++;
+              }
+            }
+          }
+          changes[band] = count;
+        });
+        for (int count : changes) {
+          changed |= count > 0;
+        }
+      }
+    }
+    removeStaircases(img, W, H);
+  }
+
+  /**
+   * Removes pixels having two orthogonal 4-neighbors (staircase corners) if they are simple points
+   * and not end points. Runs sequentially, every decision sees previous removals.
+   */
+  private static void removeStaircases(byte[] img, int W, int H) {
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int y = 1; y < H - 1; y++) {
+        for (int i = y * W + 1, end = y * W + W - 1; i < end; i++) {
+          if (img[i] == 0)
+            continue;
+          int code = code(img, i, W);
+          boolean n = (code & 1) != 0, e = (code & 4) != 0, s = (code & 16) != 0,
+              w = (code & 64) != 0;
+          boolean corner = (n && e) || (e && s) || (s && w) || (w && n);
+          if (corner && Integer.bitCount(code) >= 2 && connectivityNumber(code) == 1) {
+            img[i] = 0;
+            changed = true;
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Yokoi 8-connectivity number of the neighborhood code
+   */
+  private static int connectivityNumber(int code) {
+    // complement of neighbors in counter-clockwise order starting from E: E, NE, N, NW, W, SW, S, SE
+    int[] bits = {4, 2, 1, 128, 64, 32, 16, 8};
+    int[] c = new int[8];
+    for (int k = 0; k < 8; k++) {
+      c[k] = (code & bits[k]) != 0 ? 0 : 1;
+    }
+    int number = 0;
+    for (int k = 0; k < 8; k += 2) {
+      number += c[k] - c[k] * c[(k + 1) % 8] * c[(k + 2) % 8];
+    }
+    return number;
+  }
+
+  /**
+   * Tags skeleton pixels by the number of their neighbors
+   */
+  static byte[] tag(byte[] img, int W, int H) {
+    byte[] tags = new byte[img.length];
+    for (int y = 1; y < H - 1; y++) {
+      for (int i = y * W + 1, end = y * W + W - 1; i < end; i++) {
+        if (img[i] != 0) {
+          int count = Integer.bitCount(code(img, i, W));
+          tags[i] = count < 2 ? END_POINT : count == 2 ? SLAB : JUNCTION;
+        }
+      }
+    }
+    return tags;
+  }
+
+  /**
+   * Traces tagged padded skeleton and adds its vertices and edges to graph. Connected junction
+   * pixels form a single vertex, every end point is a vertex and cycles without vertices get one
+   * at their first pixel in raster order. Points are shifted by (x0, y0).
+   */
+  static void trace(byte[] tags, int W, int H, int x0, int y0, Graph graph) {
+    final int[] offsets = {-W, -W + 1, 1, W + 1, W, W - 1, -1, -W - 1};
+    int[] vertexOf = new int[tags.length];
+    java.util.Arrays.fill(vertexOf, -1);
+    boolean[] visited = new boolean[tags.length];
+    ArrayList<Vertex> vertices = new ArrayList<>();
+    ArrayList<Edge> edges = new ArrayList<>();
+    ArrayList<Integer> vertexPixels = new ArrayList<>();
+
+    ArrayDeque<Integer> queue = new ArrayDeque<>();
+    for (int i = 0; i < tags.length; i++) {
+      if (tags[i] == 0 || tags[i] == SLAB || vertexOf[i] >= 0)
+        continue;
+      Vertex vertex = new Vertex();
+      int id = vertices.size();
+      vertices.add(vertex);
+      vertexOf[i] = id;
+      queue.add(i);
+      while (!queue.isEmpty()) {
+        int p = queue.poll();
+        vertex.addPoint(toPoint(p, W, x0, y0));
+        vertexPixels.add(p);
+        if (tags[p] != JUNCTION)
+          continue;
+        for (int offset : offsets) {
+          int q = p + offset;
+          if (tags[q] == JUNCTION && vertexOf[q] < 0) {
+            vertexOf[q] = id;
+            queue.add(q);
+          }
+        }
+      }
+    }
+
+    Set<Long> adjacentVertices = new HashSet<>();
+    for (int k = 0; k < vertexPixels.size(); k++) {
+      int p = vertexPixels.get(k);
+      for (int offset : offsets) {
+        int q = p + offset;
+        if (tags[q] == 0)
+          continue;
+        if (vertexOf[q] >= 0) {
+          int v1 = Math.min(vertexOf[p], vertexOf[q]), v2 = Math.max(vertexOf[p], vertexOf[q]);
+          if (v1 != v2 && adjacentVertices.add((long) v1 << 32 | v2)) {
+            edges.add(new Edge(vertices.get(v1), vertices.get(v2), new ArrayList<>()));
+          }
+        } else if (!visited[q]) {
+          edges.add(traceSlabs(tags, W, x0, y0, offsets, vertexOf, visited, vertices, p, q));
+        }
+      }
+    }
+
+    // cycles consisting of slabs only
+    for (int i = 0; i < tags.length; i++) {
+      if (tags[i] != SLAB || visited[i] || vertexOf[i] >= 0)
+        continue;
+      Vertex vertex = new Vertex();
+      vertex.addPoint(toPoint(i, W, x0, y0));
+      vertexOf[i] = vertices.size();
+      vertices.add(vertex);
+      visited[i] = true;
+      for (int offset : offsets) {
+        if (tags[i + offset] != 0) {
+          edges.add(traceSlabs(tags, W, x0, y0, offsets, vertexOf, visited, vertices, i,
+              i + offset));
+          break;
+        }
+      }
+    }
+
+    edges.forEach(graph::addEdge);
+    vertices.forEach(graph::addVertex);
+  }
+
+  /**
+   * Follows slab pixels starting at slab next to vertex pixel until another vertex pixel is reached
+   */
+  private static Edge traceSlabs(byte[] tags, int W, int x0, int y0, int[] offsets,
+      int[] vertexOf, boolean[] visited, ArrayList<Vertex> vertices, int start, int first) {
+    ArrayList<Point> slabs = new ArrayList<>();
+    int previous = start;
+    int current = first;
+    while (true) {
+      visited[current] = true;
+      slabs.add(toPoint(current, W, x0, y0));
+      int next = -1;
+      for (int offset : offsets) {
+        int q = current + offset;
+        if (q != previous && tags[q] != 0) {
+          next = q;
+          break;
+        }
+      }
+      if (next < 0 || vertexOf[next] >= 0 || visited[next]) {
+        int end = next >= 0 && vertexOf[next] >= 0 ? vertexOf[next] : vertexOf[start];
+        return new Edge(vertices.get(vertexOf[start]), vertices.get(end), slabs);
+      }
+      previous = current;
+      current = next;
+    }
+  }
+
+  private static Point toPoint(int i, int W, int x0, int y0) {
+    return new Point(x0 + i % W - 1, y0 + i / W - 1);
+  }
+
+  /**
+   * 8-connected components of padded binary image, labels start at 1 (0 is background)
+   */
+  static class ComponentLabels {
+    final int[] labels;
+    int count = 0;
+    /**
+     * minX, minY, maxX, maxY of every component in padded coordinates
+     */
+    private int[] boxes = new int[64];
+
+    ComponentLabels(byte[] img, int W, int H) {
+      this.labels = new int[img.length];
+      int[] stack = new int[img.length];
+      for (int i = 0; i < img.length; i++) {
+        if (img[i] == 0 || labels[i] != 0)
+          continue;
+        int label = ++count;
+        if (4 * count + 4 > boxes.length) {
+          boxes = java.util.Arrays.copyOf(boxes, boxes.length * 2);
+        }
+        int minX = W, minY = H, maxX = -1, maxY = -1;
+        int size = 0;
+        stack[size++] = i;
+        labels[i] = label;
+        while (size > 0) {
+          int p = stack[--size];
+          int x = p % W, y = p / W;
+          minX = Math.min(minX, x);
+          minY = Math.min(minY, y);
+          maxX = Math.max(maxX, x);
+          maxY = Math.max(maxY, y);
+          for (int j = p - W - 1; j <= p + W - 1; j += W) {
+            for (int q = j; q < j + 3; q++) {
+              if (img[q] != 0 && labels[q] == 0) {
+                labels[q] = label;
+                stack[size++] = q;
+              }
+            }
+          }
+        }
+        boxes[4 * label] = minX;
+        boxes[4 * label + 1] = minY;
+        boxes[4 * label + 2] = maxX;
+        boxes[4 * label + 3] = maxY;
+      }
+    }
+
+    int[] getBoundingBox(int label) {
+      return java.util.Arrays.copyOfRange(boxes, 4 * label, 4 * label + 4);
+    }
+  }
+}
@@ -1,55 +1,207 @@
 package dev.mtbt.cells.skeleton;
 
 import dev.mtbt.util.Geometry;
+import dev.mtbt.util.Pair;
+import dev.mtbt.graph.CompactGraph;
 import dev.mtbt.graph.Graph;
+import dev.mtbt.graph.GraphLabelMap;
 import dev.mtbt.graph.Edge;
 import dev.mtbt.graph.IEdgeEvaluator;
 import dev.mtbt.graph.Point;
+import dev.mtbt.graph.SlabGridIndex;
 import dev.mtbt.graph.Vertex;
 import ij.ImagePlus;
+import ij.Prefs;
 import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import sc.fiji.analyzeSkeleton.AnalyzeSkeleton_;
 import sc.fiji.analyzeSkeleton.SkeletonResult;
 import sc.fiji.skeletonize3D.Skeletonize3D_;
 
-import java.util.*;
-import java.util.function.Function;
-
-import static java.util.function.Function.identity;
-import static java.util.stream.Collectors.toMap;
-import static java.util.stream.Collectors.toSet;
-
 public class Skeleton extends Graph {
   protected AnalyzeSkeleton_ analyzeSkeleton;
   protected SkeletonResult skeletonResult;
 
   private WeakestSlabEdgeEvaluator weakestSlabEvaluator;
+  private CompactGraph compactGraph;
+  private SlabGridIndex slabIndex;
+  /**
+   * Built on first use, see {@link #getLabels()}
+   */
+  private volatile GraphLabelMap labels;
+  /**
+   * Skeleton edges of grown spines (initial edge first) by initial edge id and evaluator. Spines
+   * are mutable, so the shared growths are replayed into new spines.
+   */
+  private final Map<Pair<Integer, IEdgeEvaluator>, List<Edge>> spineGrowths =
+      new ConcurrentHashMap<>();
+
+  /**
+   * Tagged skeleton image of the native engine or of a restored graph (null for AnalyzeSkeleton)
+   */
+  private ByteProcessor taggedImage;
+  /**
+   * Skeletonized mask of the native engine, enables incremental updates (null otherwise)
+   */
+  private ByteProcessor mask;
 
   public Skeleton(ImagePlus imp) {
+    this(imp, Engine.AnalyzeSkeleton);
+  }
+
+  public Skeleton(ImagePlus imp, Engine engine) {
     super();
-    this.weakestSlabEvaluator =
-        new WeakestSlabEdgeEvaluator(imp.getProcessor().convertToFloatProcessor());
-    ImagePlus impSkeleton = new ImagePlus("skeleton", imp.getProcessor().convertToByteProcessor());
+    this.weakestSlabEvaluator = createEvaluator(imp);
+    ByteProcessor mask = imp.getProcessor().convertToByteProcessor();
 
-    Skeletonize3D_ skeletonizer = new Skeletonize3D_();
-    skeletonizer.setup("", impSkeleton);
-    skeletonizer.run(impSkeleton.getProcessor());
+    if (engine == Engine.Native) {
+      this.mask = mask;
+      this.taggedImage = NativeSkeletonizer.skeletonize(mask, Prefs.getThreads(), this);
+    } else {
+      ImagePlus impSkeleton = new ImagePlus("skeleton", mask);
 
-    analyzeSkeleton = new AnalyzeSkeleton_();
-    analyzeSkeleton.setup("", impSkeleton);
-    skeletonResult =
-        analyzeSkeleton.run(AnalyzeSkeleton_.NONE, false, false, impSkeleton, true, false);
+      Skeletonize3D_ skeletonizer = new Skeletonize3D_();
+      skeletonizer.setup("", impSkeleton);
+      skeletonizer.run(impSkeleton.getProcessor());
 
-    // Clone all graphs to create skeleton
-    Set<Graph> graphs = Arrays.stream(analyzeSkeleton.getGraphs()).map(Graph::new).collect(toSet());
-    Map<Vertex, Vertex> vertexMap = new HashMap<>();
-    Map<Edge, Edge> edgeMap = new HashMap<>();
-    graphs.forEach(g -> vertexMap
-        .putAll(g.getVertices().stream().collect(toMap(identity(), Vertex::cloneUnconnected))));
-    Function<Edge, Edge> cloner = e -> e.clone(vertexMap.get(e.getV1()), vertexMap.get(e.getV2()));
-    graphs.forEach(g -> edgeMap.putAll(g.getEdges().stream().collect(toMap(identity(), cloner))));
-    edgeMap.keySet().stream().map(edgeMap::get).forEach(this::addEdge);
-    vertexMap.keySet().stream().map(vertexMap::get).forEach(this::addVertex);
+      analyzeSkeleton = new AnalyzeSkeleton_();
+      analyzeSkeleton.setup("", impSkeleton);
+      skeletonResult =
+          analyzeSkeleton.run(AnalyzeSkeleton_.NONE, false, false, impSkeleton, true, false);
+
+      for (sc.fiji.analyzeSkeleton.Graph graph : analyzeSkeleton.getGraphs()) {
+        this.addGraph(graph);
+      }
+    }
+    this.index();
+  }
+
+  /**
+   * Native engine skeleton of imp computed incrementally from a skeleton of a similar image, e.g.
+   * the same shape index map thresholded differently. Only connected components that changed are
+   * skeletonized again, see {@link NativeSkeletonizer#update}.
+   *
+   * @param previous skeleton that supports incremental updates, see
+   *        {@link #isIncrementallyUpdatable()}
+   */
+  public Skeleton(ImagePlus imp, Skeleton previous) {
+    super();
+    if (!previous.isIncrementallyUpdatable()) {
+      throw new IllegalArgumentException("Skeleton was not computed by the native engine");
+    }
+    this.weakestSlabEvaluator = createEvaluator(imp);
+    this.mask = imp.getProcessor().convertToByteProcessor();
+    this.taggedImage = NativeSkeletonizer.update(previous.mask, previous.taggedImage, previous,
+        this.mask, Prefs.getThreads(), this);
+    this.index();
+  }
+
+  /**
+   * Native engine skeleton of imp computed only within the regions, see
+   * {@link NativeSkeletonizer#skeletonize(ByteProcessor, List, int, Graph)}. Foreground outside of
+   * the regions is ignored.
+   */
+  public Skeleton(ImagePlus imp, List<Rectangle> regions) {
+    super();
+    this.weakestSlabEvaluator = createEvaluator(imp);
+    ByteProcessor mask = imp.getProcessor().convertToByteProcessor();
+    this.taggedImage = NativeSkeletonizer.skeletonize(mask, regions, Prefs.getThreads(), this);
+    this.index();
+  }
+
+  /**
+   * Skeleton of an already traced graph (e.g. restored from {@link SkeletonDiskCache}). Edges and
+   * vertices are taken over, the skeleton image is rendered from the graph.
+   */
+  public Skeleton(ImagePlus imp, Graph graph) {
+    super();
+    this.weakestSlabEvaluator = createEvaluator(imp);
+    graph.getEdges().forEach(this::addEdge);
+    graph.getVertices().forEach(this::addVertex);
+    this.taggedImage = this.render(imp.getWidth(), imp.getHeight());
+    this.index();
+  }
+
+  private static WeakestSlabEdgeEvaluator createEvaluator(ImagePlus imp) {
+    // shape index maps are not modified after thresholding, so they are not copied
+    return new WeakestSlabEdgeEvaluator(
+        imp.getProcessor() instanceof FloatProcessor ? (FloatProcessor) imp.getProcessor()
+            : imp.getProcessor().convertToFloatProcessor());
+  }
+
+  private void index() {
+    this.compactGraph = new CompactGraph(this);
+    this.slabIndex = new SlabGridIndex(this.compactGraph);
+    this.weakestSlabEvaluator.precompute(this.compactGraph);
+    // skeletons are shared by searches running in parallel
+    this.seal();
+  }
+
+  public boolean isIncrementallyUpdatable() {
+    return this.mask != null;
+  }
+
+  /**
+   * Evaluator used for spine growth, edge scores are precomputed for the skeleton
+   */
+  public WeakestSlabEdgeEvaluator getEdgeEvaluator() {
+    return this.weakestSlabEvaluator;
+  }
+
+  /**
+   * Pixel label map of the skeleton, built on first use
+   */
+  public GraphLabelMap getLabels() {
+    GraphLabelMap labels = this.labels;
+    if (labels == null) {
+      synchronized (this) {
+        labels = this.labels;
+        if (labels == null) {
+          labels = this.labels = new GraphLabelMap(this.compactGraph);
+        }
+      }
+    }
+    return labels;
+  }
+
+  /**
+   * Same as {@code edge.getSlabs().indexOf(slab)} for edges of the skeleton
+   */
+  public int indexOfSlab(Edge edge, Point slab) {
+    return this.getLabels().indexOfSlab(edge.getId(), slab.x, slab.y);
+  }
+
+  public SlabGridIndex getSlabIndex() {
+    return this.slabIndex;
+  }
+
+  /**
+   * Same result as the linear scan of {@link Graph#closestEdgeDistance(Point)}, answered by the
+   * slab grid
+   */
+  @Override
+  public Pair<Double, Pair<Point, Edge>> closestEdgeDistance(Point point) {
+    int slab = this.slabIndex.nearest(point.x, point.y);
+    if (slab < 0) {
+      return new Pair<>(Double.POSITIVE_INFINITY, new Pair<>(null, null));
+    }
+    int edgeId = this.compactGraph.getSlabEdge(slab);
+    Edge edge = this.compactGraph.getEdge(edgeId);
+    Point slabPoint = edge.getSlabs().get(slab - this.compactGraph.getFirstSlab(edgeId));
+    return new Pair<>(Geometry.distance(point, slabPoint), new Pair<>(slabPoint, edge));
+  }
+
+  /**
+   * Array based view of the skeleton, ids of its edges and vertices are also carried by spines
+   */
+  public CompactGraph getCompactGraph() {
+    return this.compactGraph;
   }
 
   /**
@@ -59,17 +211,56 @@ public class Skeleton extends Graph {
    * @return poly line containing point
    */
   public Spine findSpine(java.awt.Point initialPoint) {
+    return this.findSpine(initialPoint, this.weakestSlabEvaluator);
+  }
+
+  /**
+   * Find finite poly line containing point, growing it with given evaluator. Spines grown from the
+   * same edge are memoized, every call returns a new spine.
+   */
+  public Spine findSpine(java.awt.Point initialPoint, IEdgeEvaluator evaluator) {
     Edge initialEdge = this.closestEdge(new Point(initialPoint)).getValue();
-    Spine spine = new Spine();
+    Spine spine = new Spine(this);
     if (initialEdge != null) {
-      spine.addEdge(initialEdge);
-      spine.extend(this.weakestSlabEvaluator);
+      this.spineGrowths.computeIfAbsent(new Pair<>(initialEdge.getId(), evaluator), key -> {
+        Spine grown = new Spine(this);
+        grown.addEdge(initialEdge);
+        List<Edge> growth = new ArrayList<>();
+        growth.add(initialEdge);
+        growth.addAll(grown.extend(evaluator));
+        return Collections.unmodifiableList(growth);
+      }).forEach(spine::addEdge);
     }
     return spine;
   }
 
+  /**
+   * Tags vertex and slab pixels the same way as AnalyzeSkeleton_
+   */
+  private ByteProcessor render(int width, int height) {
+    ByteProcessor tagged = new ByteProcessor(width, height);
+    for (Vertex vertex : this.vertices) {
+      int tag = vertex.isLeaf() ? NativeSkeletonizer.END_POINT : NativeSkeletonizer.JUNCTION;
+      vertex.getPoints().forEach(p -> tagged.set(p.x, p.y, tag));
+    }
+    for (Edge edge : this.edges) {
+      edge.getSlabs().forEach(p -> tagged.set(p.x, p.y, NativeSkeletonizer.SLAB));
+    }
+    return tagged;
+  }
+
   public ImagePlus toImagePlus() {
+    if (this.taggedImage != null) {
+      return new ImagePlus("Skeleton", this.taggedImage);
+    }
     ByteProcessor skeleton = (ByteProcessor) analyzeSkeleton.getResultImage(false).getProcessor(1);
     return new ImagePlus("Skeleton", skeleton);
   }
+
+  /**
+   * Skeletonization and graph extraction implementation
+   */
+  public static enum Engine {
+    AnalyzeSkeleton, Native
+  }
 }
@@ -1,33 +1,40 @@
 package dev.mtbt.cells.skeleton;
 
-import dev.mtbt.util.Geometry;
 import dev.mtbt.cells.Cell;
 import dev.mtbt.cells.CellCollection;
-import dev.mtbt.cells.AbstractCellFrame;
+import dev.mtbt.cells.serialization.CheckpointWriter;
+import dev.mtbt.cells.serialization.TrackingCheckpoint;
 import dev.mtbt.gui.RunnableButton;
+import dev.mtbt.gui.RunnableCheckBox;
 import dev.mtbt.gui.RunnableSpinner;
-import dev.mtbt.util.Pair;
 import ij.IJ;
 import ij.ImagePlus;
+import ij.Prefs;
+import ij.process.FloatProcessor;
 import java.awt.ComponentOrientation;
 import java.awt.FlowLayout;
-import java.awt.Point;
-import java.awt.geom.Point2D;
+import java.io.File;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
 import javax.swing.Box;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 public class SkeletonCellLifeTracker extends AbstractSkeletonBasedStep {
 
   private RunnableButton previousFrameButton;
   private RunnableButton duplicateNextFrameButton;
   private RunnableButton calculateNextFramesButton;
+  private RunnableButton trackToEndButton;
+  private RunnableCheckBox motionPredictionCheckBox;
+  private File checkpointDirectory = CheckpointWriter.getDefaultDirectory();
+  private CheckpointWriter checkpointWriter;
   private RunnableSpinner nFramesSpinner;
+  /**
+   * Pipeline tracking in the background and its thread, set on the GUI thread only
+   */
+  private TrackingPipeline pipeline;
+  private volatile Thread trackingThread;
 
   @Override
   public JPanel init(ImagePlus imp, CellCollection cellCollection) {
@@ -55,22 +62,80 @@ public class SkeletonCellLifeTracker extends AbstractSkeletonBasedStep {
         new RunnableButton("duplicate >", this::onDuplicateNextFrameClick);
     buttonsPanel.add(this.duplicateNextFrameButton);
 
+    this.trackToEndButton = new RunnableButton("track to end >>", this::onTrackToEndClick);
+    buttonsPanel.add(this.trackToEndButton);
+
     dialogContent.add(Box.createVerticalStrut(20));
     addCenteredComponent(dialogContent, buttonsPanel);
 
+    this.motionPredictionCheckBox =
+        new RunnableCheckBox("skeletonize only around predicted cells", null);
+    addCenteredComponent(dialogContent, this.motionPredictionCheckBox);
+    this.nativeEngineCheckBox.addItemListener(e -> this.updateMotionPredictionCheckBox());
+    this.blurRadiusSlider.addChangeListener(e -> this.updateMotionPredictionCheckBox());
+    this.updateMotionPredictionCheckBox();
+
+    this.checkpointWriter =
+        new CheckpointWriter(CheckpointWriter.getFile(this.checkpointDirectory, imp));
     this.showFirstFrameWithCells();
 
     return this.dialogContent;
   }
 
+  /**
+   * Cells are modified by the tracking thread until it finishes
+   */
+  @Override
+  public boolean isModifyingCells() {
+    return this.trackingThread != null;
+  }
+
+  /**
+   * Directory checkpoints of tracking runs are written to, has to be set before {@link #init}
+   */
+  public void setCheckpointDirectory(File directory) {
+    this.checkpointDirectory = directory;
+  }
+
   @Override
   public void imageUpdated() {
     super.imageUpdated();
+    // the pipeline computes skeletons on its own
+    if (this.isInitialized() && !this.isPreviewMuted() && this.trackingThread == null) {
+      this.prefetchNextFrames();
+    }
+  }
+
+  /**
+   * Start computing skeletons of the following frames with current settings while the user reviews
+   * the current one
+   */
+  private void prefetchNextFrames() {
+    int frame = this.imp.getT();
+    int lastFrame = Math.min(frame + PREFETCH_FRAMES, this.imp.getNFrames());
+    List<SkeletonRequest> requests = new ArrayList<>();
+    for (int t = frame + 1; t <= lastFrame; t++) {
+      requests.add(this.getSkeletonRequest(t));
+    }
+    this.prefetchSkeletons(requests);
   }
 
   @Override
   public void cleanup() {
+    Thread thread = this.trackingThread;
+    if (thread != null) {
+      this.trackingThread = null;
+      this.pipeline.cancel();
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
     super.cleanup();
+    if (this.checkpointWriter != null) {
+      this.checkpointWriter.close();
+    }
   }
 
   protected void showFirstFrameWithCells() {
@@ -79,6 +144,24 @@ public class SkeletonCellLifeTracker extends AbstractSkeletonBasedStep {
     this.preview();
   }
 
+  /**
+   * Regions are skeletonized by the native engine only and cannot be blurred too much, see
+   * {@link TrackingPipeline}
+   */
+  private void updateMotionPredictionCheckBox() {
+    SkeletonRequest request = this.getSkeletonRequest();
+    boolean supported = TrackingPipeline.supportsRegions(request.engine, request.blur);
+    this.motionPredictionCheckBox.setEnabled(supported && this.trackingThread == null);
+    this.motionPredictionCheckBox.setToolTipText(supported ? null
+        : "needs native 2D skeletonization and blur up to " + TrackingPipeline.MAX_REGION_BLUR);
+  }
+
+  private boolean isMotionPredictionSelected() {
+    SkeletonRequest request = this.getSkeletonRequest();
+    return this.motionPredictionCheckBox.isSelected()
+        && TrackingPipeline.supportsRegions(request.engine, request.blur);
+  }
+
   protected void onPreviousFrameClick() {
     int frame = this.imp.getT();
     if (frame > 1) {
@@ -105,130 +188,150 @@ public class SkeletonCellLifeTracker extends AbstractSkeletonBasedStep {
   }
 
   protected void onCalculateNextFramesClick() {
-    for (int i = 0; i < (int) this.nFramesSpinner.getValue(); i++) {
+    int n = (int) this.nFramesSpinner.getValue();
+    if (this.isMotionPredictionSelected()) {
+      // cropped skeletons are not cached nor previewed, frames are tracked by the pipeline
+      this.track(this.imp.getT() + n);
+      return;
+    }
+    for (int i = 0; i < n; i++) {
       this.calculateNextFrame();
     }
   }
 
-  protected void calculateNextFrame() {
+  protected void onTrackToEndClick() {
+    if (this.trackingThread != null) {
+      this.pipeline.cancel();
+      return;
+    }
+    this.track(this.imp.getNFrames());
+  }
+
+  /**
+   * Tracks cells of the current frame to frame fN on a background thread, see
+   * {@link TrackingPipeline}. Controls are disabled and cells are hidden until it finishes, the
+   * track to end button stops it.
+   */
+  private void track(int fN) {
     int f0 = this.imp.getT();
-    List<Cell> cells = this.cellCollection.getCells(f0);
-    if (cells.size() < 1) {
+    if (this.cellCollection.getCells(f0).isEmpty()) {
       IJ.showMessage("There are no cells in current frame");
       return;
     }
-    final int frameIndex = f0 + 1;
-    cells.forEach(cell -> cell.clearFuture(frameIndex));
-    if (frameIndex > this.imp.getNFrames()) {
+    fN = Math.min(fN, this.imp.getNFrames());
+    if (fN <= f0) {
       return;
     }
-    cells = this.cellCollection.getCells(frameIndex - 1);
-    this.imp.setT(frameIndex);
+    // the pipeline computes skeletons on its own
+    this.cancelPrefetches();
+    SkeletonRequest request = this.getSkeletonRequest();
+    boolean motionPrediction = this.isMotionPredictionSelected();
+    TrackingPipeline pipeline = new TrackingPipeline(this.imp, this.cellCollection,
+        request.channel, request.slice, request.blur, request.threshold, request.engine);
+    pipeline.setMotionPrediction(motionPrediction);
+    pipeline.setFrameListener(
+        frame -> this.checkpoint(request, motionPrediction, frame, false));
+    final int lastFrame = fN;
+    Thread thread = new Thread(() -> {
+      TrackingPipeline.Report report = null;
+      try {
+        report = pipeline.run(f0, lastFrame);
+        this.checkpoint(request, motionPrediction, report.getLastFrame(), true);
+        IJ.log("[TrackingPipeline] frames " + f0 + "-" + report.getLastFrame() + "\n" + report);
+      } catch (RuntimeException e) {
+        IJ.handleException(e);
+      } finally {
+        IJ.showProgress(1.0);
+        Thread worker = Thread.currentThread();
+        int frame = report != null ? report.getLastFrame() : f0;
+        SwingUtilities.invokeLater(() -> this.onTrackingFinished(worker, frame));
+      }
+    }, "tracking");
+    thread.setDaemon(true);
+    this.pipeline = pipeline;
+    this.trackingThread = thread;
+    this.setControlsEnabled(false);
+    thread.start();
+    // hides cells until tracking finishes
+    this.preview();
+  }
 
+  private void onTrackingFinished(Thread thread, int lastFrame) {
+    // the step may have been cleaned up in the meantime
+    if (this.trackingThread != thread) {
+      return;
+    }
+    this.trackingThread = null;
+    this.pipeline = null;
+    this.setControlsEnabled(true);
+    this.imp.setT(lastFrame);
     this.preview();
+  }
 
-    HashMap<Cell, List<Pair<Point2D, Spine>>> successors = new HashMap<>();
-    cells.stream().forEach(cell -> {
-      // generate spines for some points on previous spine frame
-      // get generated spine that is closest to all points
-      // add it as next frame to cell
-      AbstractCellFrame frame = cell.getFrame(frameIndex - 1);
-      List<Double> ratioCandidates = Arrays.asList(0.2, 0.4, 0.6, 0.8);
-      List<Point2D> pointCandidates = ratioCandidates.stream()
-          .map(ratio -> frame.pointAlongLine(ratio)).collect(Collectors.toList());
-      Pair<Point2D, Spine> nextSpine = this.bestCandidateForNewSpine(pointCandidates);
-      List<Pair<Point2D, Spine>> nextSpines = new ArrayList<>(Arrays.asList(nextSpine));
-
-      int candidateIndex = pointCandidates.indexOf(nextSpine.getKey());
-      double nextSpineLength = Geometry.polylineLength(nextSpine.getValue().toPolyline());
-      double prevSpineLength = frame.getLength();
-
-      int nRatios = ratioCandidates.size();
-      if (nextSpineLength < 0.9 * prevSpineLength) {
-        List<Double> oppositeRatios;
-        if ((double) candidateIndex >= nRatios / 2.0) {
-          oppositeRatios = ratioCandidates.subList(0, nRatios / 2);
-        } else {
-          oppositeRatios = ratioCandidates.subList((int) Math.ceil(nRatios / 2.0), nRatios);
-        }
-
-        List<Point2D> oppositePointCandidates = oppositeRatios.stream()
-            .map(ratio -> frame.pointAlongLine(ratio)).collect(Collectors.toList());
-        Pair<Point2D, Spine> anotherNextSpine =
-            this.bestCandidateForNewSpine(oppositePointCandidates);
-
-        if (!nextSpine.getValue().equals(anotherNextSpine.getValue())) {
-          nextSpines.add(anotherNextSpine);
-          if ((double) candidateIndex < nRatios / 2.0) {
-            Collections.reverse(nextSpines);
-          }
-        }
-      }
-      successors.put(cell, nextSpines);
-    });
+  private void setControlsEnabled(boolean enabled) {
+    this.setSettingsEnabled(enabled);
+    this.previousFrameButton.setEnabled(enabled);
+    this.nFramesSpinner.setEnabled(enabled);
+    this.calculateNextFramesButton.setEnabled(enabled);
+    this.duplicateNextFrameButton.setEnabled(enabled);
+    this.updateMotionPredictionCheckBox();
+    this.trackToEndButton.setText(enabled ? "track to end >>" : "stop tracking");
+  }
 
-    this.fixConflicts(successors.values().stream().flatMap(l -> l.stream())
-        .map(p -> new Pair<>(Geometry.toAwtPoint(p.getKey()), p.getValue()))
-        .collect(Collectors.toList()));
-
-    successors.forEach((cell, list) -> {
-      if (list.size() < 2) {
-        AbstractCellFrame prevCellFrame = cell.getFrame(frameIndex - 1);
-        this.ensureValidSuccessorDirection(prevCellFrame, list.get(0).getValue());
-        cell.setFrame(frameIndex, this.spineToCellFrame(list.get(0).getValue()));
-      } else {
-        this.ensureValidSiblingsDirections(
-            list.stream().map(Pair::getValue).collect(Collectors.toList()));
-        Cell c1 = new Cell(frameIndex, this.spineToCellFrame(list.get(0).getValue()));
-        Cell c2 = new Cell(frameIndex, this.spineToCellFrame(list.get(1).getValue()));
-        cell.setChildren(c1, c2);
-      }
+  /**
+   * Restores settings of the checkpoint and tracks its cells from its last frame to the end in the
+   * background. Cells of the checkpoint have to be in the collection already. Called on the GUI
+   * thread.
+   */
+  public void resume(TrackingCheckpoint checkpoint) {
+    this.withoutPreview(() -> {
+      this.blurRadiusSlider.setValue(checkpoint.getBlur());
+      this.thresholdSlider.setValue(checkpoint.getThreshold());
+      this.nativeEngineCheckBox.setSelected(checkpoint.getEngine() == Skeleton.Engine.Native);
+      this.motionPredictionCheckBox.setSelected(checkpoint.isMotionPrediction());
+      this.imp.setPosition(checkpoint.getChannel(), checkpoint.getSlice(),
+          checkpoint.getLastFrame());
     });
-    this.preview();
+    this.track(this.imp.getNFrames());
   }
 
-  private void ensureValidSuccessorDirection(AbstractCellFrame cellFrame, Spine successor) {
-    double bb = cellFrame.getBegin().distance(successor.getBegin());
-    double be = cellFrame.getBegin().distance(successor.getEnd());
-    double eb = cellFrame.getEnd().distance(successor.getBegin());
-    double ee = cellFrame.getEnd().distance(successor.getEnd());
-    double min = Math.min(bb, Math.min(be, Math.min(eb, ee)));
-
-    if (bb != min && ee != min) {
-      successor.reverse();
+  /**
+   * Saves cells tracked up to lastFrame with given settings in the background, at most once per
+   * {@link CheckpointWriter#INTERVAL_MILLIS} unless forced. Called by the thread modifying cells.
+   */
+  private void checkpoint(SkeletonRequest request, boolean motionPrediction, int lastFrame,
+      boolean force) {
+    if (force || this.checkpointWriter.isDue()) {
+      this.checkpointWriter.checkpoint(new TrackingCheckpoint(this.imp, this.cellCollection,
+          request.channel, request.slice, request.blur, request.threshold, request.engine,
+          motionPrediction, lastFrame));
     }
   }
 
-  // Ensure that closest vertices are called "end"
-  private void ensureValidSiblingsDirections(List<Spine> list) {
-    if (list.size() != 2)
-      throw new IllegalArgumentException();
-    Spine s1 = list.get(0);
-    Spine s2 = list.get(1);
+  protected void calculateNextFrame() {
+    int f0 = this.imp.getT();
+    List<Cell> cells = this.cellCollection.getCells(f0);
+    if (cells.size() < 1) {
+      IJ.showMessage("There are no cells in current frame");
+      return;
+    }
+    final int frameIndex = f0 + 1;
+    cells.forEach(cell -> cell.clearFuture(frameIndex));
+    if (frameIndex > this.imp.getNFrames()) {
+      return;
+    }
+    List<Cell> previousCells = this.cellCollection.getCells(frameIndex - 1);
+    this.imp.setT(frameIndex);
 
-    double bb = s1.getBegin().distance(s2.getBegin());
-    double be = s1.getBegin().distance(s2.getEnd());
-    double eb = s1.getEnd().distance(s2.getBegin());
-    double ee = s1.getEnd().distance(s2.getEnd());
-    double min = Math.min(bb, Math.min(be, Math.min(eb, ee)));
+    this.preview();
 
-    if (bb == min) {
-      s1.reverse();
-      s2.reverse();
-    } else if (be == min) {
-      s1.reverse();
-    } else if (eb == min) {
-      s2.reverse();
-    }
-  }
+    CellSuccessorsFinder finder = new CellSuccessorsFinder(this.getSkeleton(),
+        (FloatProcessor) this.getShapeIndexMap().getProcessor(),
+        (double) thresholdSlider.getValue(), Prefs.getThreads());
+    finder.resolve(finder.findCandidates(previousCells, frameIndex), frameIndex);
+    this.checkpoint(this.getSkeletonRequest(), this.isMotionPredictionSelected(), frameIndex,
+        false);
 
-  private Pair<Point2D, Spine> bestCandidateForNewSpine(List<Point2D> pointCandidates) {
-    return pointCandidates.stream().map(point2d -> {
-      Point point = Geometry.toAwtPoint(point2d);
-      Spine spine = this.performSearch(Arrays.asList(point)).get(0);
-      double score = pointCandidates.stream().reduce(0.0,
-          (acc, candidate) -> acc + point2d.distance(candidate), (v0, v1) -> v0 + v1);
-      return new Pair<>(new Pair<>(point2d, spine), score);
-    }).min((s0, s1) -> Double.compare(s0.getValue(), s1.getValue())).get().getKey();
+    this.preview();
   }
 }
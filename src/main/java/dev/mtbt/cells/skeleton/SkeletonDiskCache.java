@@ -0,0 +1,355 @@
+package dev.mtbt.cells.skeleton;
+
+import dev.mtbt.graph.Edge;
+import dev.mtbt.graph.Graph;
+import dev.mtbt.graph.Point;
+import dev.mtbt.graph.Vertex;
+import ij.IJ;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Shape index maps and skeletons stored on disk, so they survive reopening the plugin or reloading
+ * the image.
+ * <p>
+ * Entries are keyed by a SHA-256 hash of the frame pixels and the parameters used to compute them.
+ * Shape index maps are raw float files (small header followed by pixels). Skeletons are stored as
+ * binary graphs and the skeleton image is rendered from the graph on load. Files are written to a
+ * temporary name and moved in place, so concurrent readers never see partial entries. Any failure
+ * to read an entry is treated as a cache miss and the entry is deleted.
+ * <p>
+ * The directory is kept below a size limit, least recently used entries are deleted first.
+ */
+public class SkeletonDiskCache {
+  // "SIM3", older maps were blurred depending on previous blur radii or scaled by their data range
+  private static final int MAP_MAGIC = 0x53494d33;
+  private static final int GRAPH_MAGIC = 0x534b4731; // "SKG1"
+  private static final int MAP_HEADER_BYTES = 5 * 4;
+  public static final long DEFAULT_MAX_BYTES = 1L << 30;
+
+  private final File directory;
+  private final long maxBytes;
+  /**
+   * Size of the directory, -1 until it is first measured
+   */
+  private long size = -1;
+
+  public SkeletonDiskCache(File directory) {
+    this(directory, DEFAULT_MAX_BYTES);
+  }
+
+  public SkeletonDiskCache(File directory, long maxBytes) {
+    this.directory = directory;
+    this.maxBytes = maxBytes;
+  }
+
+  public static File getDefaultDirectory() {
+    return new File(System.getProperty("user.home"), ".mtbt" + File.separator + "skeleton-cache");
+  }
+
+  public File getDirectory() {
+    return this.directory;
+  }
+
+  /**
+   * Hex encoded SHA-256 of the dimensions, bit depth and pixels of the processor
+   */
+  public static String hash(ImageProcessor ip) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    int n = ip.getWidth() * ip.getHeight();
+    int bytesPerPixel = ip.getBitDepth() == 24 ? 4 : ip.getBitDepth() / 8;
+    ByteBuffer buffer = ByteBuffer.allocate(12 + n * bytesPerPixel);
+    buffer.putInt(ip.getWidth()).putInt(ip.getHeight()).putInt(ip.getBitDepth());
+    Object pixels = ip.getPixels();
+    if (pixels instanceof byte[]) {
+      buffer.put((byte[]) pixels, 0, n);
+    } else if (pixels instanceof short[]) {
+      buffer.asShortBuffer().put((short[]) pixels, 0, n);
+    } else if (pixels instanceof float[]) {
+      buffer.asFloatBuffer().put((float[]) pixels, 0, n);
+    } else if (pixels instanceof int[]) {
+      buffer.asIntBuffer().put((int[]) pixels, 0, n);
+    } else {
+      throw new IllegalArgumentException("Unsupported pixel type");
+    }
+    byte[] bytes = digest.digest(buffer.array());
+    StringBuilder hex = new StringBuilder();
+    for (byte b : bytes) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+
+  public FloatProcessor getIndexMap(String frameHash, double blur) {
+    File file = this.indexMapFile(frameHash, blur);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer header = readFully(channel, MAP_HEADER_BYTES);
+      if (header == null || header.getInt() != MAP_MAGIC) {
+        return null;
+      }
+      int width = header.getInt(), height = header.getInt();
+      float min = header.getFloat(), max = header.getFloat();
+      if (width <= 0 || height <= 0
+          || channel.size() != MAP_HEADER_BYTES + 4L * width * height) {
+        return invalid(file);
+      }
+      ByteBuffer data = readFully(channel, 4 * width * height);
+      if (data == null) {
+        return invalid(file);
+      }
+      float[] pixels = new float[width * height];
+      data.asFloatBuffer().get(pixels);
+      FloatProcessor fp = new FloatProcessor(width, height, pixels);
+      fp.setMinAndMax(min, max);
+      touch(file);
+      return fp;
+    } catch (IOException | RuntimeException e) {
+      return invalid(file);
+    }
+  }
+
+  public void setIndexMap(String frameHash, double blur, FloatProcessor map) {
+    float[] pixels = (float[]) map.getPixels();
+    ByteBuffer buffer =
+        ByteBuffer.allocate(MAP_HEADER_BYTES + 4 * pixels.length).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.putInt(MAP_MAGIC).putInt(map.getWidth()).putInt(map.getHeight())
+        .putFloat((float) map.getMin()).putFloat((float) map.getMax());
+    FloatBuffer floats = buffer.asFloatBuffer();
+    floats.put(pixels);
+    buffer.rewind();
+    this.write(this.indexMapFile(frameHash, blur), temp -> {
+      try (FileChannel channel = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE)) {
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+      }
+    });
+  }
+
+  /**
+   * Returns cached skeleton graph or null. Vertices and edges are new objects without ids.
+   */
+  public Graph getSkeletonGraph(String frameHash, double blur, double threshold,
+      Skeleton.Engine engine) {
+    File file = this.skeletonFile(frameHash, blur, threshold, engine);
+    if (!file.isFile()) {
+      return null;
+    }
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+      if (in.readInt() != GRAPH_MAGIC) {
+        return null;
+      }
+      // counts are checked against the file length, so corrupted ones cannot allocate huge arrays
+      long length = file.length();
+      Graph graph = new Graph();
+      Vertex[] vertices = new Vertex[readCount(in, length, 4)];
+      for (int i = 0; i < vertices.length; i++) {
+        vertices[i] = new Vertex();
+        int nPoints = readCount(in, length, 8);
+        for (int p = 0; p < nPoints; p++) {
+          vertices[i].addPoint(new Point(in.readInt(), in.readInt()));
+        }
+      }
+      int nEdges = readCount(in, length, 12);
+      for (int e = 0; e < nEdges; e++) {
+        Vertex v1 = vertices[in.readInt()];
+        Vertex v2 = vertices[in.readInt()];
+        int nSlabs = readCount(in, length, 8);
+        ArrayList<Point> slabs = new ArrayList<>(nSlabs);
+        for (int s = 0; s < nSlabs; s++) {
+          slabs.add(new Point(in.readInt(), in.readInt()));
+        }
+        graph.addEdge(new Edge(v1, v2, slabs));
+      }
+      for (Vertex vertex : vertices) {
+        graph.addVertex(vertex);
+      }
+      touch(file);
+      return graph;
+    } catch (IOException | RuntimeException e) {
+      return invalid(file);
+    }
+  }
+
+  /**
+   * Reads a count of items taking at least itemBytes each from a file of given length
+   */
+  private static int readCount(DataInputStream in, long length, int itemBytes)
+      throws IOException {
+    int count = in.readInt();
+    if (count < 0 || count > length / itemBytes) {
+      throw new IOException("Invalid count " + count);
+    }
+    return count;
+  }
+
+  /**
+   * Deletes a corrupted entry, it is computed and written again
+   */
+  private static <T> T invalid(File file) {
+    file.delete();
+    return null;
+  }
+
+  public void setSkeletonGraph(String frameHash, double blur, double threshold,
+      Skeleton.Engine engine, Graph graph) {
+    this.write(this.skeletonFile(frameHash, blur, threshold, engine), temp -> {
+      try (DataOutputStream out =
+          new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp.toPath())))) {
+        out.writeInt(GRAPH_MAGIC);
+        Map<Vertex, Integer> indices = new IdentityHashMap<>();
+        out.writeInt(graph.getVertices().size());
+        for (Vertex vertex : graph.getVertices()) {
+          indices.put(vertex, indices.size());
+          out.writeInt(vertex.getPoints().size());
+          for (Point point : vertex.getPoints()) {
+            out.writeInt(point.x);
+            out.writeInt(point.y);
+          }
+        }
+        out.writeInt(graph.getEdges().size());
+        for (Edge edge : graph.getEdges()) {
+          out.writeInt(indices.get(edge.getV1()));
+          out.writeInt(indices.get(edge.getV2()));
+          out.writeInt(edge.getSlabs().size());
+          for (Point point : edge.getSlabs()) {
+            out.writeInt(point.x);
+            out.writeInt(point.y);
+          }
+        }
+      }
+    });
+  }
+
+  private File indexMapFile(String frameHash, double blur) {
+    return new File(this.directory, frameHash + "_" + blur + ".sim");
+  }
+
+  private File skeletonFile(String frameHash, double blur, double threshold,
+      Skeleton.Engine engine) {
+    return new File(this.directory,
+        frameHash + "_" + blur + "_" + threshold + "_" + engine + ".skg");
+  }
+
+  /**
+   * Little endian buffer with the next n bytes of the channel, null if the file ends before
+   */
+  private static ByteBuffer readFully(FileChannel channel, int n) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer) < 0) {
+        return null;
+      }
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * Marks the entry as recently used, the modification time orders entries for eviction
+   */
+  private static void touch(File file) {
+    file.setLastModified(System.currentTimeMillis());
+  }
+
+  /**
+   * Deletes all entries
+   */
+  public synchronized void clear() {
+    File[] files = this.directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    this.size = 0;
+  }
+
+  /**
+   * Deletes least recently used entries until the directory takes at most 3/4 of the limit
+   */
+  private synchronized void added(long bytes) {
+    if (this.size < 0) {
+      this.size = 0;
+      File[] files = this.directory.listFiles();
+      for (File file : files != null ? files : new File[0]) {
+        this.size += file.length();
+      }
+    } else {
+      this.size += bytes;
+    }
+    if (this.size <= this.maxBytes) {
+      return;
+    }
+    File[] files = this.directory.listFiles((dir, name) -> !name.endsWith(".tmp"));
+    if (files == null) {
+      return;
+    }
+    long[] modified = new long[files.length];
+    Integer[] order = new Integer[files.length];
+    this.size = 0;
+    for (int i = 0; i < files.length; i++) {
+      modified[i] = files[i].lastModified();
+      order[i] = i;
+      this.size += files[i].length();
+    }
+    Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+    for (int i = 0; i < order.length && this.size > this.maxBytes / 4 * 3; i++) {
+      File file = files[order[i]];
+      long length = file.length();
+      if (file.delete()) {
+        this.size -= length;
+      }
+    }
+  }
+
+  private void write(File target, FileWriter writer) {
+    File temp = null;
+    try {
+      Files.createDirectories(this.directory.toPath());
+      temp = File.createTempFile(target.getName(), ".tmp", this.directory);
+      writer.write(temp);
+      Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      this.added(target.length());
+    } catch (IOException e) {
+      IJ.log("[SkeletonDiskCache] Could not write " + target + ": " + e.getMessage());
+      if (temp != null) {
+        temp.delete();
+      }
+    }
+  }
+
+  @FunctionalInterface
+  private interface FileWriter {
+    void write(File file) throws IOException;
+  }
+}
@@ -3,7 +3,6 @@ package dev.mtbt.cells.skeleton;
 import dev.mtbt.graph.*;
 import java.awt.geom.Point2D;
 import java.util.*;
-import java.util.stream.Collectors;
 import dev.mtbt.util.Geometry;
 import dev.mtbt.cells.skeleton.SpineConflictsResolver.OverlapType;
 import dev.mtbt.cells.skeleton.SpineTraverser.SpineTraverserStep;
@@ -12,11 +11,24 @@ public class Spine extends Graph {
 
   private SpineVertex e1 = null;
   private SpineVertex e2 = null;
+  /**
+   * Skeleton the spine was found on (null if none)
+   */
+  private Skeleton skeleton = null;
+  /**
+   * Edges of the spine for constant time overlap tests, shared with spines assigned from this one
+   */
+  private Fingerprint fingerprint = new Fingerprint();
 
   public Spine() {
     super();
   }
 
+  public Spine(Skeleton skeleton) {
+    super();
+    this.skeleton = skeleton;
+  }
+
   public SpineVertex getE1() {
     return this.e1;
   }
@@ -26,12 +38,19 @@ public class Spine extends Graph {
   }
 
   public List<Point2D> toPolyline() {
-    ArrayList<Point> points = new ArrayList<>();
-    if (this.e1 != null) {
-      points = this.toPath().toSlabs(true);
-      points = Geometry.simplifyPolyline(points, 2);
+    if (this.e1 == null) {
+      return new ArrayList<>();
     }
-    return points.stream().map(p -> p.toPoint2D()).collect(Collectors.toCollection(ArrayList::new));
+    int[][] coordinates = this.toPath().toCoordinates(true);
+    int[] xs = coordinates[0], ys = coordinates[1];
+    boolean[] keep = new boolean[xs.length];
+    ArrayList<Point2D> polyline =
+        new ArrayList<>(Geometry.simplifyPolyline(xs, ys, xs.length, 2, keep));
+    for (int i = 0; i < xs.length; i++) {
+      if (keep[i])
+        polyline.add(new Point2D.Double(xs[i], ys[i]));
+    }
+    return polyline;
   }
 
   public void reverse() {
@@ -64,15 +83,27 @@ public class Spine extends Graph {
     } else if (edge.isIncidentTo(this.e2)) {
       this.e2 = (SpineVertex) edge.getOppositeVertex(this.e2);
     }
-    return super.addEdge(edge);
+    int size = this.edges.size();
+    Edge added = super.addEdge(edge);
+    if (this.edges.size() > size) {
+      this.fingerprint.add(edge);
+    }
+    return added;
   }
 
   /**
    * Extend spine based on original graph
+   *
+   * @return skeleton edges added to the spine in order of addition
    */
-  public void extend(IEdgeEvaluator edgeEvaluator) {
-    while (extend(e1, edgeEvaluator));
-    while (extend(e2, edgeEvaluator));
+  public List<Edge> extend(IEdgeEvaluator edgeEvaluator) {
+    List<Edge> added = new ArrayList<>();
+    Edge edge;
+    while ((edge = extendEdge(e1, edgeEvaluator)) != null)
+      added.add(edge);
+    while ((edge = extendEdge(e2, edgeEvaluator)) != null)
+      added.add(edge);
+    return added;
   }
 
   private Edge strongestValidEdge(Set<Edge> candidates, Vertex start,
@@ -92,6 +123,13 @@ public class Spine extends Graph {
   }
 
   public boolean extend(Vertex endpoint, IEdgeEvaluator edgeEvaluator) {
+    return extendEdge(endpoint, edgeEvaluator) != null;
+  }
+
+  /**
+   * Adds the strongest valid skeleton edge at endpoint and returns it (null if none)
+   */
+  private Edge extendEdge(Vertex endpoint, IEdgeEvaluator edgeEvaluator) {
     Vertex endpointOrigin;
     if (this.e1.equals(endpoint)) {
       endpointOrigin = this.e1.getSkeletonVertex();
@@ -101,13 +139,13 @@ public class Spine extends Graph {
       throw new IllegalArgumentException("Vertex is not spine endpoint");
     }
     if (endpointOrigin.isLeaf()) {
-      return false;
+      return null;
     }
     Edge newEdge = strongestValidEdge(endpointOrigin.getBranches(), endpoint, edgeEvaluator);
-    if (newEdge == null) {
-      return false;
+    if (newEdge == null || addEdge(newEdge) == null) {
+      return null;
     }
-    return addEdge(newEdge) != null;
+    return newEdge;
   }
 
   private void validateNewEdge(Edge e) {
@@ -146,17 +184,64 @@ public class Spine extends Graph {
     return null;
   }
 
+  protected Edge getAnyCommonEdge(Iterable<Edge> edges) {
+    for (Edge edge : edges) {
+      if (this.edges.contains(edge)) {
+        return edge;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Same as {@code getAnyCommonEdge(spine.getEdges()) != null}. Spines of the same skeleton compare
+   * fingerprints, only edges created by cuts (without id) are looked up.
+   */
+  protected boolean sharesEdge(Spine spine) {
+    if (this.skeleton == null || this.skeleton != spine.skeleton) {
+      return this.getAnyCommonEdge(spine.getEdges()) != null;
+    }
+    if (this.fingerprint.ids.intersects(spine.fingerprint.ids)) {
+      return true;
+    }
+    return this.hasUntrackedEdgeOf(spine) || spine.hasUntrackedEdgeOf(this);
+  }
+
+  private boolean hasUntrackedEdgeOf(Spine spine) {
+    if (spine.fingerprint.untracked == 0) {
+      return false;
+    }
+    for (Edge edge : spine.edges) {
+      if (edge.getId() < 0 && this.edges.contains(edge)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   protected Edge findEdge(Point slab) {
     for (Edge edge : edges) {
-      for (Point p : edge.getSlabs()) {
-        if (p.equals(slab)) {
-          return edge;
-        }
+      if (indexOfSlab(edge, slab) >= 0) {
+        return edge;
       }
     }
     return null;
   }
 
+  /**
+   * Same as {@code edge.getSlabs().indexOf(slab)}. Edges cloned from the skeleton are answered by
+   * the skeleton, edges created by splits are searched.
+   */
+  protected int indexOfSlab(Edge edge, Point slab) {
+    if (slab == null) {
+      return -1;
+    }
+    if (this.skeleton != null && edge.getId() >= 0) {
+      return this.skeleton.indexOfSlab(edge, slab);
+    }
+    return edge.getSlabs().indexOf(slab);
+  }
+
   public java.awt.geom.Point2D.Double getBegin() {
     if (this.e1 == null) {
       return null;
@@ -175,6 +260,8 @@ public class Spine extends Graph {
     super.assign(s);
     this.e1 = s.e1;
     this.e2 = s.e2;
+    this.skeleton = s.skeleton;
+    this.fingerprint = s.fingerprint;
   }
 
   public boolean overlaps(Spine spine) {
@@ -191,6 +278,7 @@ public class Spine extends Graph {
     if (this.edges.size() == 1) {
       this.edges.clear();
       this.vertices.clear();
+      this.fingerprint.clear();
       this.e1 = null;
       this.e2 = null;
       return null;
@@ -198,7 +286,9 @@ public class Spine extends Graph {
     Edge edge = endpoint.getBranches().first();
     SpineVertex newEndpoint = (SpineVertex) edge.getOppositeVertex(endpoint);
     newEndpoint.getBranches().remove(edge);
-    this.edges.remove(edge);
+    if (this.edges.remove(edge)) {
+      this.fingerprint.remove(edge);
+    }
     this.vertices.remove(endpoint);
     if (endpoint.equals(this.e1)) {
       this.e1 = newEndpoint;
@@ -249,6 +339,35 @@ public class Spine extends Graph {
     return null;
   }
 
+  /**
+   * Ids of skeleton edges and number of edges without id
+   */
+  private static class Fingerprint {
+    private final BitSet ids = new BitSet();
+    private int untracked = 0;
+
+    void add(Edge edge) {
+      if (edge.getId() >= 0) {
+        this.ids.set(edge.getId());
+      } else {
+        this.untracked++;
+      }
+    }
+
+    void remove(Edge edge) {
+      if (edge.getId() >= 0) {
+        this.ids.clear(edge.getId());
+      } else {
+        this.untracked--;
+      }
+    }
+
+    void clear() {
+      this.ids.clear();
+      this.untracked = 0;
+    }
+  }
+
   static class Path {
     private SpineVertex begin;
     private SpineVertex end;
@@ -292,6 +411,62 @@ public class Spine extends Graph {
       }
     }
 
+    /**
+     * Same as {@code toSlabs(false).indexOf(slab)} without building the list
+     */
+    public int indexOfSlab(Spine spine, Point slab) {
+      int offset = 0;
+      SpineTraverser traverser = new SpineTraverser(begin, firstEdge, end);
+      while (traverser.hasNext()) {
+        SpineTraverserStep step = traverser.next();
+        int size = step.edge.getSlabs().size();
+        int index = spine.indexOfSlab(step.edge, slab);
+        if (index >= 0) {
+          return offset + (step.v1.equals(step.edge.getV2()) ? size - 1 - index : index);
+        }
+        offset += size;
+      }
+      return -1;
+    }
+
+    /**
+     * Coordinates of {@code toSlabs(addEndpoints)} without creating points
+     *
+     * @return {xs, ys}
+     */
+    public int[][] toCoordinates(boolean addEndpoints) {
+      List<SpineTraverserStep> steps = new ArrayList<>();
+      int n = addEndpoints ? 2 : 0;
+      SpineTraverser traverser = new SpineTraverser(begin, firstEdge, end);
+      while (traverser.hasNext()) {
+        SpineTraverserStep step = traverser.next();
+        steps.add(step);
+        n += step.edge.getSlabs().size();
+      }
+      int[] xs = new int[n], ys = new int[n];
+      int k = 0;
+      if (addEndpoints) {
+        Point center = begin.center();
+        xs[k] = center.x;
+        ys[k++] = center.y;
+      }
+      for (SpineTraverserStep step : steps) {
+        List<Point> slabs = step.edge.getSlabs();
+        boolean reversed = step.v1.equals(step.edge.getV2());
+        for (int i = 0; i < slabs.size(); i++) {
+          Point slab = slabs.get(reversed ? slabs.size() - 1 - i : i);
+          xs[k] = slab.x;
+          ys[k++] = slab.y;
+        }
+      }
+      if (addEndpoints) {
+        Point center = end.center();
+        xs[k] = center.x;
+        ys[k] = center.y;
+      }
+      return new int[][] {xs, ys};
+    }
+
     public ArrayList<Point> toSlabs(boolean addEndpoints) {
       ArrayList<Point> points = new ArrayList<>();
 
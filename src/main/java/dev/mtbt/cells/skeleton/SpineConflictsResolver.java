@@ -2,8 +2,12 @@ package dev.mtbt.cells.skeleton;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.ListIterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 import java.util.stream.Collectors;
 import dev.mtbt.cells.skeleton.Spine.Path;
 import dev.mtbt.cells.skeleton.SpineTraverser.SpineTraverserStep;
@@ -16,12 +20,16 @@ import dev.mtbt.util.Pair;
 
 public class SpineConflictsResolver {
 
+  /**
+   * Resolves overlaps of every spine with all following spines. Only pairs sharing an edge can
+   * overlap, so following spines are visited through an up to date edge ownership index.
+   */
   static public List<Pair<Point, Spine>> fixConflicts(List<Pair<Point, Spine>> spines,
       IPointEvaluator pointEvaluator, IEdgeEvaluator edgeEvaluator) {
-    ListIterator<Pair<Point, Spine>> iterator = spines.listIterator();
-    while (iterator.hasNext()) {
-      Pair<Point, Spine> spine = iterator.next();
-      for (int i = iterator.nextIndex(); i < spines.size(); i++) {
+    EdgeOwnership ownership = new EdgeOwnership(spines);
+    for (int j = 0; j < spines.size(); j++) {
+      Pair<Point, Spine> spine = spines.get(j);
+      for (int i = ownership.nextSharing(j, j); i >= 0; i = ownership.nextSharing(j, i)) {
         boolean change;
         do {
           change = false;
@@ -32,10 +40,14 @@ public class SpineConflictsResolver {
                 SpineConflictsResolver.resolveConflict(new Pair<>(p1, spine.getValue()),
                     new Pair<>(p2, spines.get(i).getValue()), pointEvaluator, edgeEvaluator);
             change = result.getKey();
+            ownership.update(j);
+            ownership.update(i);
             Point cutPoint = result.getValue();
             if (cutPoint != null) {
-              for (Pair<Point, Spine> pair : spines.subList(i + 1, spines.size())) {
+              for (int k = i + 1; k < spines.size(); k++) {
+                Pair<Point, Spine> pair = spines.get(k);
                 SpineConflictsResolver.cut(pair.getValue(), cutPoint, pair.getKey());
+                ownership.update(k);
               }
             }
           }
@@ -45,6 +57,67 @@ public class SpineConflictsResolver {
     return spines;
   }
 
+  /**
+   * Spines owning edges, edges are keyed by first points of their vertices (equal edges have equal
+   * keys, colliding keys only add candidates)
+   */
+  static private class EdgeOwnership {
+    private final List<Pair<Point, Spine>> spines;
+    private final Map<Long, TreeSet<Integer>> owners = new HashMap<>();
+    private final List<Set<Long>> keys = new ArrayList<>();
+
+    EdgeOwnership(List<Pair<Point, Spine>> spines) {
+      this.spines = spines;
+      for (int i = 0; i < spines.size(); i++) {
+        this.keys.add(new HashSet<>());
+        this.update(i);
+      }
+    }
+
+    /**
+     * Reindexes edges of i-th spine after it was modified
+     */
+    void update(int i) {
+      Set<Long> spineKeys = this.keys.get(i);
+      for (Long key : spineKeys) {
+        this.owners.get(key).remove(i);
+      }
+      spineKeys.clear();
+      for (Edge edge : this.spines.get(i).getValue().getEdges()) {
+        long key = key(edge);
+        if (spineKeys.add(key)) {
+          this.owners.computeIfAbsent(key, k -> new TreeSet<>()).add(i);
+        }
+      }
+    }
+
+    /**
+     * Lowest index greater than after of a spine sharing an edge key with j-th spine (-1 if none)
+     */
+    int nextSharing(int j, int after) {
+      int next = -1;
+      for (Long key : this.keys.get(j)) {
+        Integer candidate = this.owners.get(key).higher(after);
+        if (candidate != null && (next < 0 || candidate < next)) {
+          next = candidate;
+        }
+      }
+      return next;
+    }
+
+    private static long key(Edge edge) {
+      return (long) pointKey(edge.getV1()) << 32 | pointKey(edge.getV2()) & 0xffffffffL;
+    }
+
+    private static int pointKey(Vertex vertex) {
+      if (vertex.getPoints().isEmpty()) {
+        return -1;
+      }
+      Point point = vertex.getPoints().first();
+      return point.x << 16 | point.y & 0xffff;
+    }
+  }
+
   /**
    * Get the weakest point on spine between two points according to given score function
    */
@@ -62,8 +135,14 @@ public class SpineConflictsResolver {
   }
 
   static protected OverlapType overlapType(Spine s1, Spine s2) {
-    Edge commonEdge1 = s1.getAnyCommonEdge(s2.getEdges().toArray(new Edge[s2.getEdges().size()]));
-    if (commonEdge1 == null) {
+    OverlapType type = overlapType(s1, s2, s1.sharesEdge(s2));
+    assert type == overlapType(s1, s2, s1.getAnyCommonEdge(s2.getEdges()) != null)
+        : "Spine fingerprint out of sync";
+    return type;
+  }
+
+  static private OverlapType overlapType(Spine s1, Spine s2, boolean shareEdge) {
+    if (!shareEdge) {
       return OverlapType.None;
     }
     if ((s1.getE1().equals(s2.getE1()) && s1.getE2().equals(s2.getE2()))
@@ -109,9 +188,9 @@ public class SpineConflictsResolver {
 
     // 2. FIND BEGIN / END SLABS ACCORDING TO REFERENCE POINTS (OR ENDS)
     Pair<Point, Edge> ref1 = s1.getValue().closestEdge(s1.getKey());
-    int indexOfRef1 = slabs.indexOf(ref1.getKey());
+    int indexOfRef1 = path.indexOfSlab(s1.getValue(), ref1.getKey());
     Pair<Point, Edge> ref2 = s2.getValue().closestEdge(s2.getKey());
-    int indexOfRef2 = slabs.indexOf(ref2.getKey());
+    int indexOfRef2 = path.indexOfSlab(s2.getValue(), ref2.getKey());
     int bi = 0;
     int ei = slabs.size() - 1;
     if (indexOfRef1 >= 0 && indexOfRef2 >= 0) {
@@ -324,7 +403,7 @@ public class SpineConflictsResolver {
     if (edge == null) {
       return new Pair<>(false, null);
     }
-    int indexOfSlab = edge.getSlabs().indexOf(slab);
+    int indexOfSlab = spine.indexOfSlab(edge, slab);
     if (indexOfSlab < 3) {
       int removedEdges = cutOnVertex(spine, (SpineVertex) edge.getV1(), referencePoint);
       return new Pair<>(removedEdges > 0, null);
@@ -405,7 +484,7 @@ public class SpineConflictsResolver {
       Point referencePoint) {
     Pair<Point, Edge> reference = spine.closestEdge(referencePoint);
     if (reference.getValue().equals(edge)) {
-      int indexOfRefSlab = edge.getSlabs().indexOf(reference.getKey());
+      int indexOfRefSlab = spine.indexOfSlab(edge, reference.getKey());
       return indexOfRefSlab < slabIndex ? -1 : 1;
     }
     int direction = 1;
@@ -18,6 +18,7 @@ public class SpineVertex extends Vertex {
     if (origin != null) {
       this.points.addAll(origin.getPoints());
       this.skeletonVertex = origin;
+      this.id = origin.getId();
     }
   }
 
@@ -48,6 +49,7 @@ public class SpineVertex extends Vertex {
     final SpineVertex clone = new SpineVertex(this.skeletonVertex);
     clone.points.clear();
     clone.points.addAll(points.stream().map(Point::clone).collect(toList()));
+    clone.id = this.id;
     return clone;
   }
 }
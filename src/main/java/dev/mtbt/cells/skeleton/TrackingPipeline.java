@@ -0,0 +1,378 @@
+package dev.mtbt.cells.skeleton;
+
+import dev.mtbt.cells.Cell;
+import dev.mtbt.cells.CellCollection;
+import dev.mtbt.imagej.HyperstackHelper;
+import dev.mtbt.util.Pair;
+import dev.mtbt.util.Parallel;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.Prefs;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntConsumer;
+
+/**
+ * Headless tracking of cells to the last frame of a movie, without GUI updates between frames.
+ * <p>
+ * Frames are processed in two overlapping stages: while cells are matched to the skeleton of frame
+ * t, blur, shape index and skeleton of frame t + 1 are computed on a background thread. Matching
+ * only reads pixels of the movie and computing skeletons never touches cells, so the overlap does
+ * not change results. Successors are found by {@link CellSuccessorsFinder}, the lineage is the same
+ * as the one of {@link SkeletonCellLifeTracker} with the same settings.
+ * <p>
+ * With motion prediction, shape index and skeleton are computed only in regions around predicted
+ * positions of cells (see {@link MotionPredictor}). Regions are cropped with a margin for the blur,
+ * so sparse fields skip most of the image. Positions are predicted from the last tracked frame,
+ * which is two frames back while the previous frame is being matched. Only the native engine
+ * skeletonizes regions, with other engines or above {@link #MAX_REGION_BLUR} whole frames are
+ * processed.
+ */
+public class TrackingPipeline {
+  /**
+   * Margins of cropped regions in blur radii and in pixels, beyond them the truncated Gaussian
+   * kernel and shape index differences do not reach the region
+   */
+  private static final double BLUR_MARGIN = 4;
+  private static final int SHAPE_INDEX_MARGIN = 4;
+  /**
+   * Largest blur of cropped regions. ImageJ GaussianBlur downsamples above 2 * UPSCALE_K_RADIUS +
+   * 0.5 (4.5 in older versions, 8.5 in recent ones) on a grid aligned to the crop, then cropped
+   * blurs differ from the whole frame ones.
+   */
+  static final double MAX_REGION_BLUR = 4.5;
+
+  private final ImagePlus imp;
+  private final CellCollection cellCollection;
+  private final int channel;
+  private final int slice;
+  private final double blur;
+  private final double threshold;
+  private final Skeleton.Engine engine;
+  private int parallelism = Prefs.getThreads();
+  private boolean motionPrediction = false;
+  private IntConsumer frameListener = null;
+  private volatile boolean cancelled = false;
+
+  public TrackingPipeline(ImagePlus imp, CellCollection cellCollection, int channel, int slice,
+      double blur, double threshold, Skeleton.Engine engine) {
+    this.imp = imp;
+    this.cellCollection = cellCollection;
+    this.channel = channel;
+    this.slice = slice;
+    this.blur = blur;
+    this.threshold = threshold;
+    this.engine = engine;
+  }
+
+  public void setParallelism(int parallelism) {
+    this.parallelism = parallelism;
+  }
+
+  /**
+   * Compute skeletons only around predicted positions of cells
+   */
+  public void setMotionPrediction(boolean motionPrediction) {
+    this.motionPrediction = motionPrediction;
+  }
+
+  /**
+   * Called on the tracking thread with the index of every frame whose cells are complete
+   */
+  public void setFrameListener(IntConsumer frameListener) {
+    this.frameListener = frameListener;
+  }
+
+  /**
+   * Stops a running {@link #run} after the frame being tracked, may be called from any thread
+   */
+  public void cancel() {
+    this.cancelled = true;
+  }
+
+  /**
+   * Tracks cells of frame f0 to the last frame. Cells after f0 are replaced.
+   *
+   * @return times spent in every stage
+   */
+  public Report run(int f0) {
+    return this.run(f0, this.imp.getNFrames());
+  }
+
+  /**
+   * Tracks cells of frame f0 to frame fN. Cells after f0 are replaced.
+   *
+   * @return times spent in every stage
+   */
+  public Report run(int f0, int fN) {
+    List<Cell> cells = this.cellCollection.getCells(f0);
+    if (cells.isEmpty()) {
+      throw new IllegalArgumentException("There are no cells in frame " + f0);
+    }
+    int nFrames = Math.min(fN, this.imp.getNFrames());
+    Report report = new Report();
+    report.lastFrame = f0;
+    if (f0 >= nFrames) {
+      return report;
+    }
+    cells.forEach(cell -> cell.clearFuture(f0 + 1));
+    if (this.motionPrediction && !this.usesRegions()) {
+      IJ.log("[TrackingPipeline] motion prediction needs the native engine and blur up to "
+          + MAX_REGION_BLUR + ", skeletonizing whole frames instead of predicted regions");
+    }
+
+    long start = System.nanoTime();
+    ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "tracking-pipeline");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      List<Rectangle> firstRegions = this.predictRegions(f0, 1);
+      CompletableFuture<Frame> next = CompletableFuture
+          .supplyAsync(() -> this.prepare(f0 + 1, firstRegions, report), executor);
+      for (int frameIndex = f0 + 1; frameIndex <= nFrames && !this.cancelled; frameIndex++) {
+        Frame frame = next.join();
+        if (frameIndex < nFrames) {
+          int following = frameIndex + 1;
+          // cells are read here, before matching of frameIndex modifies them
+          List<Rectangle> regions = this.predictRegions(frameIndex - 1, 2);
+          next = CompletableFuture
+              .supplyAsync(() -> this.prepare(following, regions, report), executor);
+        }
+        this.track(frame, report);
+        report.lastFrame = frameIndex;
+        if (this.frameListener != null) {
+          this.frameListener.accept(frameIndex);
+        }
+        IJ.showProgress(frameIndex - f0, nFrames - f0);
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    report.wallTime = System.nanoTime() - start;
+    return report;
+  }
+
+  /**
+   * Regions of frame (lastFrame + lead) to skeletonize or null for the whole frame
+   */
+  private List<Rectangle> predictRegions(int lastFrame, int lead) {
+    if (!this.usesRegions()) {
+      return null;
+    }
+    return MotionPredictor.predictRegions(this.cellCollection.getCells(lastFrame), lastFrame, lead,
+        this.imp.getWidth(), this.imp.getHeight());
+  }
+
+  /**
+   * Whether motion prediction is enabled and possible with the settings of the pipeline
+   */
+  boolean usesRegions() {
+    return supportsRegions(this.engine, this.blur) && this.motionPrediction;
+  }
+
+  static boolean supportsRegions(Skeleton.Engine engine, double blur) {
+    return engine == Skeleton.Engine.Native && blur <= MAX_REGION_BLUR;
+  }
+
+  /**
+   * Computes the skeleton of a frame, runs on the pipeline thread
+   *
+   * @param regions regions to skeletonize or null for the whole frame
+   */
+  Frame prepare(int frameIndex, List<Rectangle> regions, Report report) {
+    if (regions != null && !regions.isEmpty()) {
+      return this.prepareRegions(frameIndex, regions, report);
+    }
+    long t0 = System.nanoTime();
+    ImageProcessor plane;
+    // virtual stacks read planes from disk and are not safe for concurrent access
+    synchronized (this.imp.getStack()) {
+      plane = HyperstackHelper.getPlaneProcessor(this.imp, this.channel, this.slice, frameIndex);
+    }
+    ImageProcessor blurred = AbstractSkeletonBasedStep.createScaleSpace(plane).get(this.blur);
+    long t1 = System.nanoTime();
+    FloatProcessor map =
+        AbstractSkeletonBasedStep.computeShapeIndexMap(blurred, this.parallelism);
+    ImagePlus thresholded = AbstractSkeletonBasedStep.thresholdShapeIndexMap(
+        new ImagePlus("Shape index of " + this.imp.getTitle(), map), this.threshold);
+    long t2 = System.nanoTime();
+    Skeleton skeleton = new Skeleton(thresholded, this.engine);
+    long t3 = System.nanoTime();
+    report.add(Stage.Blur, t1 - t0);
+    report.add(Stage.ShapeIndex, t2 - t1);
+    report.add(Stage.Skeleton, t3 - t2);
+    report.addArea(plane.getPixelCount(), plane.getPixelCount());
+    return new Frame(frameIndex, skeleton, (FloatProcessor) thresholded.getProcessor());
+  }
+
+  /**
+   * Computes shape index within regions only. Every region is blurred with a margin, so up to
+   * {@link #MAX_REGION_BLUR} its values are the ones of the whole frame. The rest of the map is
+   * below any threshold.
+   */
+  private Frame prepareRegions(int frameIndex, List<Rectangle> regions, Report report) {
+    int width = this.imp.getWidth(), height = this.imp.getHeight();
+    int margin = (int) Math.ceil(BLUR_MARGIN * this.blur) + SHAPE_INDEX_MARGIN;
+    float[] pixels = new float[width * height];
+    Arrays.fill(pixels, Float.NEGATIVE_INFINITY);
+    long[] blurTimes = new long[regions.size()];
+    long[] shapeIndexTimes = new long[regions.size()];
+    ImageProcessor plane;
+    synchronized (this.imp.getStack()) {
+      plane = HyperstackHelper.getPlaneProcessor(this.imp, this.channel, this.slice, frameIndex);
+    }
+    Parallel.forEach(this.parallelism, regions.size(), k -> {
+      long r0 = System.nanoTime();
+      Rectangle region = regions.get(k);
+      Rectangle crop = new Rectangle(region);
+      crop.grow(margin, margin);
+      crop = crop.intersection(new Rectangle(width, height));
+      ImageProcessor cropped;
+      synchronized (plane) {
+        plane.setRoi(crop);
+        cropped = plane.crop();
+        plane.resetRoi();
+      }
+      ImageProcessor blurred =
+          AbstractSkeletonBasedStep.createScaleSpace(cropped).get(this.blur);
+      blurTimes[k] = System.nanoTime() - r0;
+      long r1 = System.nanoTime();
+      float[] map =
+          (float[]) AbstractSkeletonBasedStep.computeShapeIndexMap(blurred, 1).getPixels();
+      for (int y = region.y; y < region.y + region.height; y++) {
+        for (int x = region.x; x < region.x + region.width; x++) {
+          pixels[y * width + x] = map[(y - crop.y) * crop.width + x - crop.x];
+        }
+      }
+      shapeIndexTimes[k] = System.nanoTime() - r1;
+    });
+    FloatProcessor map = new FloatProcessor(width, height, pixels);
+    // same display range as maps of whole frames
+    map.setMinAndMax(-1, 1);
+    ImagePlus thresholded = AbstractSkeletonBasedStep.thresholdShapeIndexMap(
+        new ImagePlus("Shape index of " + this.imp.getTitle(), map), this.threshold);
+    long t0 = System.nanoTime();
+    Skeleton skeleton = new Skeleton(thresholded, regions);
+    long t1 = System.nanoTime();
+    // regions are processed concurrently, their times are summed
+    long blurTime = 0, shapeIndexTime = 0, area = 0;
+    for (int k = 0; k < regions.size(); k++) {
+      blurTime += blurTimes[k];
+      shapeIndexTime += shapeIndexTimes[k];
+      area += (long) regions.get(k).width * regions.get(k).height;
+    }
+    report.add(Stage.Blur, blurTime);
+    report.add(Stage.ShapeIndex, shapeIndexTime);
+    report.add(Stage.Skeleton, t1 - t0);
+    report.addArea(area, (long) width * height);
+    return new Frame(frameIndex, skeleton, (FloatProcessor) thresholded.getProcessor());
+  }
+
+  /**
+   * Matches cells of the previous frame to the skeleton of the frame, runs on the calling thread
+   */
+  private void track(Frame frame, Report report) {
+    long t0 = System.nanoTime();
+    CellSuccessorsFinder finder = new CellSuccessorsFinder(frame.skeleton, frame.shapeIndexMap,
+        this.threshold, this.parallelism);
+    LinkedHashMap<Cell, List<Pair<Point2D, Spine>>> candidates =
+        finder.findCandidates(this.cellCollection.getCells(frame.index - 1), frame.index);
+    long t1 = System.nanoTime();
+    finder.resolve(candidates, frame.index);
+    long t2 = System.nanoTime();
+    report.add(Stage.Match, t1 - t0);
+    report.add(Stage.Resolve, t2 - t1);
+  }
+
+  static class Frame {
+    final int index;
+    final Skeleton skeleton;
+    final FloatProcessor shapeIndexMap;
+
+    Frame(int index, Skeleton skeleton, FloatProcessor shapeIndexMap) {
+      this.index = index;
+      this.skeleton = skeleton;
+      this.shapeIndexMap = shapeIndexMap;
+    }
+  }
+
+  public static enum Stage {
+    Blur, ShapeIndex, Skeleton, Match, Resolve
+  }
+
+  /**
+   * Time spent in every stage. Stages before matching run on the pipeline thread, so the wall time
+   * is lower than the sum of stage times when they overlap.
+   */
+  public static class Report {
+    private final long[] times = new long[Stage.values().length];
+    private final int[] frames = new int[Stage.values().length];
+    private long wallTime;
+    private volatile int lastFrame;
+    private long processedPixels;
+    private long framePixels;
+
+    private synchronized void add(Stage stage, long nanos) {
+      this.times[stage.ordinal()] += nanos;
+      this.frames[stage.ordinal()]++;
+    }
+
+    private synchronized void addArea(long processed, long total) {
+      this.processedPixels += processed;
+      this.framePixels += total;
+    }
+
+    /**
+     * Share of frame pixels whose shape index was computed, below 1 with motion prediction
+     */
+    public synchronized double getProcessedArea() {
+      return this.framePixels > 0 ? (double) this.processedPixels / this.framePixels : 0;
+    }
+
+    public synchronized int getFrames(Stage stage) {
+      return this.frames[stage.ordinal()];
+    }
+
+    public synchronized double getMillis(Stage stage) {
+      return this.times[stage.ordinal()] / 1e6;
+    }
+
+    public synchronized double getFramesPerSecond(Stage stage) {
+      long time = this.times[stage.ordinal()];
+      return time > 0 ? this.frames[stage.ordinal()] * 1e9 / time : 0;
+    }
+
+    /**
+     * Last frame with tracked cells, before the requested one if the run was cancelled
+     */
+    public int getLastFrame() {
+      return this.lastFrame;
+    }
+
+    public double getWallMillis() {
+      return this.wallTime / 1e6;
+    }
+
+    @Override
+    public synchronized String toString() {
+      StringBuilder builder = new StringBuilder();
+      for (Stage stage : Stage.values()) {
+        builder.append(String.format("%s: %d frames, %.0f ms, %.2f frames/s%n", stage,
+            this.getFrames(stage), this.getMillis(stage), this.getFramesPerSecond(stage)));
+      }
+      builder.append(String.format("Processed area: %.1f %%%n", 100 * this.getProcessedArea()));
+      builder.append(String.format("Total: %.0f ms", this.getWallMillis()));
+      return builder.toString();
+    }
+  }
+}
@@ -1,5 +1,6 @@
 package dev.mtbt.cells.skeleton;
 
+import dev.mtbt.graph.CompactGraph;
 import dev.mtbt.graph.Edge;
 import dev.mtbt.graph.IEdgeEvaluator;
 import dev.mtbt.graph.Point;
@@ -11,22 +12,57 @@ public class WeakestSlabEdgeEvaluator implements IEdgeEvaluator {
   private static final double EDGE_EVALUATOR_RADIUS = 10;
 
   private FloatProcessor fp;
+  private final double min;
+  private final double scale;
+
+  /**
+   * Lowest value of every edge of the graph by edge id (see {@link #precompute(CompactGraph)})
+   */
+  private float[] lowestValues;
 
   public WeakestSlabEdgeEvaluator(FloatProcessor fp) {
     this.fp = fp;
+    this.min = fp.getMin();
+    this.scale = 1 / (fp.getMax() - fp.getMin());
+  }
+
+  /**
+   * Precomputes scores of all edges of the graph, scores of its edges (and of their clones) are
+   * then read from a table.
+   * <p>
+   * {@link Geometry#distance(Point, java.util.Set)} starts from negative infinity, so every slab
+   * passes the radius test in {@link #score(Edge, Vertex)} and the score of an edge does not depend
+   * on the start vertex. A single value per edge is therefore enough to reproduce it.
+   */
+  public void precompute(CompactGraph graph) {
+    float[] pixels = (float[]) this.fp.getPixels();
+    int width = this.fp.getWidth();
+    float[] values = new float[graph.getEdgeCount()];
+    for (int e = 0; e < values.length; e++) {
+      float lowest = Float.POSITIVE_INFINITY;
+      for (int s = graph.getFirstSlab(e), end = s + graph.getSlabCount(e); s < end; s++) {
+        lowest = Math.min(lowest, pixels[graph.getSlabY(s) * width + graph.getSlabX(s)]);
+      }
+      values[e] = lowest;
+    }
+    this.lowestValues = values;
   }
 
   @Override
   public double score(Edge edge, Vertex start) {
-    double lowestValue = Double.POSITIVE_INFINITY;
-    for (Point slab : edge.getSlabs()) {
-      double dist = Geometry.distance(slab, start.getPoints());
-      if (dist <= EDGE_EVALUATOR_RADIUS) {
-        lowestValue = Math.min(fp.getf(slab.x, slab.y), lowestValue);
+    double lowestValue;
+    if (this.lowestValues != null && edge.getId() >= 0) {
+      lowestValue = this.lowestValues[edge.getId()];
+    } else {
+      lowestValue = Double.POSITIVE_INFINITY;
+      for (Point slab : edge.getSlabs()) {
+        double dist = Geometry.distance(slab, start.getPoints());
+        if (dist <= EDGE_EVALUATOR_RADIUS) {
+          lowestValue = Math.min(fp.getf(slab.x, slab.y), lowestValue);
+        }
       }
     }
-    double scale = 1 / (fp.getMax() - fp.getMin());
-    return (lowestValue - fp.getMin()) * scale;
+    return (lowestValue - this.min) * this.scale;
   }
 
 }
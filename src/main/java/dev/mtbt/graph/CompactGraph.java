@@ -0,0 +1,354 @@
+package dev.mtbt.graph;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Immutable compressed-sparse-row snapshot of a {@link Graph}.
+ * <p>
+ * Vertices and edges are identified by integer ids assigned in the iteration order of the source
+ * graph, so comparing ids is equivalent to comparing the objects. The ids are also stored in the
+ * source {@link Vertex} and {@link Edge} objects (see {@link Vertex#getId()} and
+ * {@link Edge#getId()}) and are copied to their clones. Slab and vertex coordinates are packed into
+ * {@code int[]} arrays as consecutive (x, y) pairs, and adjacency lists of vertices are sorted by
+ * edge id, which matches the order of {@link Vertex#getBranches()}.
+ */
+public class CompactGraph {
+  private final Vertex[] vertices;
+  private final Edge[] edges;
+
+  /**
+   * Points of vertex v are pairs [vertexPointOffsets[v], vertexPointOffsets[v + 1]) of vertexPoints
+   */
+  private final int[] vertexPointOffsets;
+  private final int[] vertexPoints;
+
+  private final int[] edgeV1;
+  private final int[] edgeV2;
+
+  /**
+   * Slabs of edge e are pairs [slabOffsets[e], slabOffsets[e + 1]) of slabs, slabEdges maps global
+   * slab index back to its edge
+   */
+  private final int[] slabOffsets;
+  private final int[] slabs;
+  private final int[] slabEdges;
+
+  /**
+   * Branches of vertex v are adjacency[adjacencyOffsets[v]] ... adjacency[adjacencyOffsets[v+1]-1]
+   */
+  private final int[] adjacencyOffsets;
+  private final int[] adjacency;
+
+  public CompactGraph(Graph graph) {
+    Map<Vertex, Integer> vertexIds = new IdentityHashMap<>();
+    for (Vertex vertex : graph.getVertices()) {
+      vertexIds.putIfAbsent(vertex, vertexIds.size());
+    }
+    // endpoints missing in the vertex set (duplicates by points) get their own ids
+    for (Edge edge : graph.getEdges()) {
+      vertexIds.putIfAbsent(edge.getV1(), vertexIds.size());
+      vertexIds.putIfAbsent(edge.getV2(), vertexIds.size());
+    }
+
+    this.vertices = new Vertex[vertexIds.size()];
+    vertexIds.forEach((vertex, id) -> this.vertices[id] = vertex);
+    this.vertexPointOffsets = new int[this.vertices.length + 1];
+    int nPoints = 0;
+    for (int v = 0; v < this.vertices.length; v++) {
+      this.vertices[v].id = v;
+      this.vertexPointOffsets[v] = nPoints;
+      nPoints += this.vertices[v].getPoints().size();
+    }
+    this.vertexPointOffsets[this.vertices.length] = nPoints;
+    this.vertexPoints = new int[2 * nPoints];
+    for (int v = 0, i = 0; v < this.vertices.length; v++) {
+      for (Point point : this.vertices[v].getPoints()) {
+        this.vertexPoints[i++] = point.x;
+        this.vertexPoints[i++] = point.y;
+      }
+    }
+
+    this.edges = graph.getEdges().toArray(new Edge[0]);
+    this.edgeV1 = new int[this.edges.length];
+    this.edgeV2 = new int[this.edges.length];
+    this.slabOffsets = new int[this.edges.length + 1];
+    int nSlabs = 0;
+    for (int e = 0; e < this.edges.length; e++) {
+      Edge edge = this.edges[e];
+      edge.id = e;
+      this.edgeV1[e] = vertexIds.get(edge.getV1());
+      this.edgeV2[e] = vertexIds.get(edge.getV2());
+      this.slabOffsets[e] = nSlabs;
+      nSlabs += edge.getSlabs().size();
+    }
+    this.slabOffsets[this.edges.length] = nSlabs;
+    this.slabs = new int[2 * nSlabs];
+    this.slabEdges = new int[nSlabs];
+    for (int e = 0, s = 0; e < this.edges.length; e++) {
+      for (Point slab : this.edges[e].getSlabs()) {
+        this.slabEdges[s] = e;
+        this.slabs[2 * s] = slab.x;
+        this.slabs[2 * s + 1] = slab.y;
+        s++;
+      }
+    }
+
+    // edges are visited in increasing id order, so adjacency lists come out sorted
+    this.adjacencyOffsets = new int[this.vertices.length + 1];
+    for (int e = 0; e < this.edges.length; e++) {
+      this.adjacencyOffsets[this.edgeV1[e] + 1]++;
+      if (this.edgeV2[e] != this.edgeV1[e]) {
+        this.adjacencyOffsets[this.edgeV2[e] + 1]++;
+      }
+    }
+    for (int v = 0; v < this.vertices.length; v++) {
+      this.adjacencyOffsets[v + 1] += this.adjacencyOffsets[v];
+    }
+    this.adjacency = new int[this.adjacencyOffsets[this.vertices.length]];
+    int[] fill = Arrays.copyOf(this.adjacencyOffsets, this.vertices.length);
+    for (int e = 0; e < this.edges.length; e++) {
+      this.adjacency[fill[this.edgeV1[e]]++] = e;
+      if (this.edgeV2[e] != this.edgeV1[e]) {
+        this.adjacency[fill[this.edgeV2[e]]++] = e;
+      }
+    }
+  }
+
+  public int getVertexCount() {
+    return this.vertices.length;
+  }
+
+  public int getEdgeCount() {
+    return this.edges.length;
+  }
+
+  public int getSlabCount() {
+    return this.slabEdges.length;
+  }
+
+  public Vertex getVertex(int v) {
+    return this.vertices[v];
+  }
+
+  public Edge getEdge(int e) {
+    return this.edges[e];
+  }
+
+  public int getV1(int e) {
+    return this.edgeV1[e];
+  }
+
+  public int getV2(int e) {
+    return this.edgeV2[e];
+  }
+
+  public boolean isIncidentTo(int e, int v) {
+    return this.edgeV1[e] == v || this.edgeV2[e] == v;
+  }
+
+  /**
+   * @return the other end of edge e or -1 if v is not incident to e
+   */
+  public int getOppositeVertex(int e, int v) {
+    if (this.edgeV1[e] == v)
+      return this.edgeV2[e];
+    else if (this.edgeV2[e] == v)
+      return this.edgeV1[e];
+    return -1;
+  }
+
+  public int getDegree(int v) {
+    return this.adjacencyOffsets[v + 1] - this.adjacencyOffsets[v];
+  }
+
+  public boolean isLeaf(int v) {
+    return getDegree(v) < 2;
+  }
+
+  /**
+   * @return k-th branch of vertex v in the order of {@link Vertex#getBranches()}
+   */
+  public int getBranch(int v, int k) {
+    return this.adjacency[this.adjacencyOffsets[v] + k];
+  }
+
+  /**
+   * Same as {@code SpineVertex.getOppositeBranch}: the last branch if e is the first one and the
+   * first branch otherwise, -1 for leaves
+   */
+  public int getOppositeBranch(int v, int e) {
+    int from = this.adjacencyOffsets[v];
+    int to = this.adjacencyOffsets[v + 1];
+    if (to - from < 2)
+      return -1;
+    return this.adjacency[from] == e ? this.adjacency[to - 1] : this.adjacency[from];
+  }
+
+  public int getVertexPointCount(int v) {
+    return this.vertexPointOffsets[v + 1] - this.vertexPointOffsets[v];
+  }
+
+  public boolean isVertexPoint(int v, int x, int y) {
+    for (int i = this.vertexPointOffsets[v]; i < this.vertexPointOffsets[v + 1]; i++) {
+      if (this.vertexPoints[2 * i] == x && this.vertexPoints[2 * i + 1] == y)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Same as {@link Vertex#center()}
+   */
+  public Point center(int v) {
+    int from = this.vertexPointOffsets[v];
+    int to = this.vertexPointOffsets[v + 1];
+    if (to - from == 1)
+      return new Point(this.vertexPoints[2 * from], this.vertexPoints[2 * from + 1]);
+    long xSum = 0;
+    long ySum = 0;
+    for (int i = from; i < to; i++) {
+      xSum += this.vertexPoints[2 * i];
+      ySum += this.vertexPoints[2 * i + 1];
+    }
+    return new Point((int) Math.round((double) xSum / (to - from)),
+        (int) Math.round((double) ySum / (to - from)));
+  }
+
+  public int getSlabCount(int e) {
+    return this.slabOffsets[e + 1] - this.slabOffsets[e];
+  }
+
+  /**
+   * @return global index of the first slab of edge e, slabs of e are consecutive
+   */
+  public int getFirstSlab(int e) {
+    return this.slabOffsets[e];
+  }
+
+  public int getSlabEdge(int slab) {
+    return this.slabEdges[slab];
+  }
+
+  public int getSlabX(int slab) {
+    return this.slabs[2 * slab];
+  }
+
+  public int getSlabY(int slab) {
+    return this.slabs[2 * slab + 1];
+  }
+
+  /**
+   * @return index of the slab within edge e (as in {@code getSlabs().indexOf}) or -1
+   */
+  public int indexOfSlab(int e, int x, int y) {
+    for (int s = this.slabOffsets[e]; s < this.slabOffsets[e + 1]; s++) {
+      if (this.slabs[2 * s] == x && this.slabs[2 * s + 1] == y)
+        return s - this.slabOffsets[e];
+    }
+    return -1;
+  }
+
+  /**
+   * @return packed (x, y) slabs of edge e starting from vertex begin, as in
+   *         {@link Edge#getDirectedSlabs(Vertex)}
+   */
+  public int[] getDirectedSlabs(int e, int begin) {
+    if (!isIncidentTo(e, begin))
+      throw new IllegalArgumentException("Begin is not edge vertex");
+    int from = this.slabOffsets[e];
+    int n = getSlabCount(e);
+    int[] result = Arrays.copyOfRange(this.slabs, 2 * from, 2 * (from + n));
+    if (begin == this.edgeV2[e]) {
+      for (int i = 0, j = n - 1; i < j; i++, j--) {
+        int x = result[2 * i], y = result[2 * i + 1];
+        result[2 * i] = result[2 * j];
+        result[2 * i + 1] = result[2 * j + 1];
+        result[2 * j] = x;
+        result[2 * j + 1] = y;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return id of the first edge containing slab (x, y) or -1
+   */
+  public int findEdge(int x, int y) {
+    for (int s = 0; s < this.slabEdges.length; s++) {
+      if (this.slabs[2 * s] == x && this.slabs[2 * s + 1] == y)
+        return this.slabEdges[s];
+    }
+    return -1;
+  }
+
+  /**
+   * Closest slab in the same sense as {@link Graph#closestEdgeDistance(Point)}: the first one in
+   * edge and slab order among equally distant slabs.
+   *
+   * @return global slab index or -1 for graph without slabs
+   */
+  public int closestSlab(int x, int y) {
+    long bestDistance = Long.MAX_VALUE;
+    int best = -1;
+    for (int s = 0; s < this.slabEdges.length; s++) {
+      long dx = this.slabs[2 * s] - x;
+      long dy = this.slabs[2 * s + 1] - y;
+      long dist = dx * dx + dy * dy;
+      if (dist < bestDistance) {
+        bestDistance = dist;
+        best = s;
+      }
+    }
+    return best;
+  }
+
+  /**
+   * Walks from vertex begin along firstEdge and then always through the opposite branch, the same
+   * way as {@code SpineTraverser}. Stops at vertex end (-1 = none), at a leaf or when the walk
+   * closes a cycle.
+   *
+   * @return ids of traversed edges in order
+   */
+  public int[] traverse(int begin, int firstEdge, int end) {
+    int[] path = new int[Math.min(16, this.edges.length + 1)];
+    int length = 0;
+    int current = begin;
+    int nextEdge = firstEdge;
+    while (current != end && nextEdge >= 0 && length <= this.edges.length) {
+      if (length == path.length) {
+        path = Arrays.copyOf(path, 2 * length);
+      }
+      path[length++] = nextEdge;
+      current = getOppositeVertex(nextEdge, current);
+      nextEdge = getOppositeBranch(current, nextEdge);
+      if (current == begin)
+        break;
+    }
+    return Arrays.copyOf(path, length);
+  }
+
+  /**
+   * Path between vertices v1 and v2 in the same sense as {@code Spine.findPath}
+   *
+   * @return ids of edges from v1 to v2 or null if v2 is not reachable by a simple walk
+   */
+  public int[] findPath(int v1, int v2) {
+    for (int k = 0; k < getDegree(v1); k++) {
+      int[] path = traverse(v1, getBranch(v1, k), v2);
+      if (path.length > 0 && endOf(v1, path) == v2) {
+        return path;
+      }
+    }
+    return null;
+  }
+
+  private int endOf(int begin, int[] path) {
+    int current = begin;
+    for (int e : path) {
+      current = getOppositeVertex(e, current);
+    }
+    return current;
+  }
+}
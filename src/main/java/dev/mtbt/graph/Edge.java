@@ -2,6 +2,7 @@ package dev.mtbt.graph;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 
 import static dev.mtbt.util.Geometry.distance;
@@ -10,7 +11,11 @@ import static java.util.stream.Collectors.toList;
 public class Edge implements Comparable<Edge> {
   protected Vertex v1;
   protected Vertex v2;
-  protected ArrayList<Point> slabs;
+  protected List<Point> slabs;
+  /**
+   * Index of the edge in {@link CompactGraph} built from its graph (-1 if none)
+   */
+  protected int id = -1;
 
   public Edge(Vertex v1, Vertex v2, ArrayList<Point> slabs) {
     if (v1.compareTo(v2) <= 0) {
@@ -49,7 +54,11 @@ public class Edge implements Comparable<Edge> {
     return this.v2;
   }
 
-  public ArrayList<Point> getSlabs() {
+  public int getId() {
+    return this.id;
+  }
+
+  public List<Point> getSlabs() {
     return this.slabs;
   }
 
@@ -62,6 +71,13 @@ public class Edge implements Comparable<Edge> {
     return slabs;
   }
 
+  /**
+   * Makes slabs read-only, see {@link Graph#seal()}
+   */
+  protected void seal() {
+    this.slabs = Collections.unmodifiableList(this.slabs);
+  }
+
   public Vertex getOppositeVertex(Vertex v) {
     if (this.v1.equals(v))
       return this.v2;
@@ -76,7 +92,9 @@ public class Edge implements Comparable<Edge> {
       clonedSlabs =
           slabs.stream().map(Point::clone).collect(Collectors.toCollection(ArrayList::new));
     }
-    return new Edge(v1, v2, clonedSlabs);
+    Edge clone = new Edge(v1, v2, clonedSlabs);
+    clone.id = this.id;
+    return clone;
   }
 
   public boolean isIncidentTo(Vertex v) {
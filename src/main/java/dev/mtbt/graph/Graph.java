@@ -6,13 +6,15 @@ import dev.mtbt.util.Pair;
 import static java.util.function.Function.identity;
 import static java.util.stream.Collectors.toMap;
 
+import java.util.Collections;
 import java.util.Map;
+import java.util.NavigableSet;
 import java.util.TreeSet;
 import java.util.function.Function;
 
 public class Graph {
-  protected TreeSet<Edge> edges;
-  protected TreeSet<Vertex> vertices;
+  protected NavigableSet<Edge> edges;
+  protected NavigableSet<Vertex> vertices;
 
   public Graph() {
     this.edges = new TreeSet<>();
@@ -22,6 +24,14 @@ public class Graph {
   public Graph(sc.fiji.analyzeSkeleton.Graph g) {
     this.edges = new TreeSet<>();
     this.vertices = new TreeSet<>();
+    this.addGraph(g);
+  }
+
+  /**
+   * Converts vertices and edges of AnalyzeSkeleton graph and adds them to this graph. Points are
+   * copied once and no intermediate graph is created.
+   */
+  public void addGraph(sc.fiji.analyzeSkeleton.Graph g) {
     final Map<sc.fiji.analyzeSkeleton.Vertex, Vertex> vertexMap =
         g.getVertices().stream().collect(toMap(identity(), Vertex::new));
     final Function<sc.fiji.analyzeSkeleton.Edge, Edge> cloner =
@@ -47,14 +57,25 @@ public class Graph {
     return v;
   }
 
-  public TreeSet<Vertex> getVertices() {
+  public NavigableSet<Vertex> getVertices() {
     return this.vertices;
   }
 
-  public TreeSet<Edge> getEdges() {
+  public NavigableSet<Edge> getEdges() {
     return this.edges;
   }
 
+  /**
+   * Makes the graph with its vertices and edges read-only. Sealed graph can be shared between
+   * threads, any later modification throws UnsupportedOperationException.
+   */
+  public void seal() {
+    this.edges.forEach(Edge::seal);
+    this.vertices.forEach(Vertex::seal);
+    this.edges = Collections.unmodifiableNavigableSet(this.edges);
+    this.vertices = Collections.unmodifiableNavigableSet(this.vertices);
+  }
+
   public Pair<Point, Edge> closestEdge(Point point) {
     return this.closestEdgeDistance(point).getValue();
   }
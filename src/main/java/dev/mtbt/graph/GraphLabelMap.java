@@ -0,0 +1,177 @@
+package dev.mtbt.graph;
+
+import java.awt.Rectangle;
+
+/**
+ * Labels of the pixels of a {@link CompactGraph} with the slab or the vertex they belong to, so
+ * membership queries are constant time lookups.
+ * <p>
+ * Labels are kept in an open addressing hash table keyed by pixel offsets in the bounding box of
+ * the graph, its size follows the number of graph pixels rather than the bounding box, so crowded
+ * large frames are labeled as cheaply as small ones.
+ * <p>
+ * Pixels shared by more than one slab or vertex (which skeletons do not produce, but hand-made
+ * graphs might) are marked ambiguous and answered by scanning the graph.
+ */
+public class GraphLabelMap {
+  public static final int NONE = -1;
+  public static final int AMBIGUOUS = -2;
+
+  private static final int EMPTY_LABEL = 0;
+  private static final int AMBIGUOUS_LABEL = Integer.MIN_VALUE;
+
+  private final CompactGraph graph;
+  private final int originX;
+  private final int originY;
+  private final int width;
+  private final int height;
+  /**
+   * Pixel offsets in the bounding box plus one (0 = empty slot) and their labels: s + 1 = global
+   * slab s, -(v + 1) = vertex v
+   */
+  private final int[] keys;
+  private final int[] labels;
+  private final int mask;
+
+  public GraphLabelMap(CompactGraph graph) {
+    this.graph = graph;
+    Rectangle bounds = getBounds(graph);
+    this.originX = bounds.x;
+    this.originY = bounds.y;
+    this.width = bounds.width;
+    this.height = bounds.height;
+
+    int pixels = graph.getSlabCount();
+    for (int v = 0; v < graph.getVertexCount(); v++) {
+      pixels += graph.getVertex(v).getPoints().size();
+    }
+    // load factor at most 1/2
+    int capacity = Integer.highestOneBit(Math.max(2, pixels) * 2 - 1) << 1;
+    this.keys = new int[capacity];
+    this.labels = new int[capacity];
+    this.mask = capacity - 1;
+
+    for (int s = 0; s < graph.getSlabCount(); s++) {
+      label(graph.getSlabX(s), graph.getSlabY(s), s + 1);
+    }
+    for (int v = 0; v < graph.getVertexCount(); v++) {
+      for (Point p : graph.getVertex(v).getPoints()) {
+        label(p.x, p.y, -(v + 1));
+      }
+    }
+  }
+
+  /**
+   * Bounding box of slabs and vertex points, keys are pixel offsets within it
+   */
+  private static Rectangle getBounds(CompactGraph graph) {
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+    for (int s = 0; s < graph.getSlabCount(); s++) {
+      minX = Math.min(minX, graph.getSlabX(s));
+      minY = Math.min(minY, graph.getSlabY(s));
+      maxX = Math.max(maxX, graph.getSlabX(s));
+      maxY = Math.max(maxY, graph.getSlabY(s));
+    }
+    for (int v = 0; v < graph.getVertexCount(); v++) {
+      for (Point p : graph.getVertex(v).getPoints()) {
+        minX = Math.min(minX, p.x);
+        minY = Math.min(minY, p.y);
+        maxX = Math.max(maxX, p.x);
+        maxY = Math.max(maxY, p.y);
+      }
+    }
+    if (minX > maxX) {
+      return new Rectangle();
+    }
+    return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+  }
+
+  private static int slot(int key, int mask) {
+    // spread offsets of neighboring pixels (Fibonacci hashing)
+    return (key * 0x9e3779b9 >>> 7) & mask;
+  }
+
+  private void label(int x, int y, int label) {
+    int key = (y - this.originY) * this.width + (x - this.originX) + 1;
+    int i = slot(key, this.mask);
+    while (this.keys[i] != 0 && this.keys[i] != key) {
+      i = (i + 1) & this.mask;
+    }
+    if (this.keys[i] == 0) {
+      this.keys[i] = key;
+      this.labels[i] = label;
+    } else {
+      this.labels[i] = AMBIGUOUS_LABEL;
+    }
+  }
+
+  private int labelAt(int x, int y) {
+    x -= this.originX;
+    y -= this.originY;
+    if (x < 0 || y < 0 || x >= this.width || y >= this.height) {
+      return EMPTY_LABEL;
+    }
+    int key = y * this.width + x + 1;
+    for (int i = slot(key, this.mask);; i = (i + 1) & this.mask) {
+      if (this.keys[i] == key) {
+        return this.labels[i];
+      }
+      if (this.keys[i] == 0) {
+        return EMPTY_LABEL;
+      }
+    }
+  }
+
+  /**
+   * @return global slab index at (x, y), {@link #NONE} or {@link #AMBIGUOUS}
+   */
+  public int getSlab(int x, int y) {
+    int label = labelAt(x, y);
+    if (label == AMBIGUOUS_LABEL)
+      return AMBIGUOUS;
+    return label > 0 ? label - 1 : NONE;
+  }
+
+  /**
+   * @return vertex id at (x, y), {@link #NONE} or {@link #AMBIGUOUS}
+   */
+  public int getVertex(int x, int y) {
+    int label = labelAt(x, y);
+    if (label == AMBIGUOUS_LABEL)
+      return AMBIGUOUS;
+    return label < 0 ? -label - 1 : NONE;
+  }
+
+  /**
+   * Same as {@link CompactGraph#findEdge(int, int)}
+   */
+  public int findEdge(int x, int y) {
+    int slab = getSlab(x, y);
+    if (slab == AMBIGUOUS)
+      return this.graph.findEdge(x, y);
+    return slab == NONE ? NONE : this.graph.getSlabEdge(slab);
+  }
+
+  /**
+   * Same as {@link CompactGraph#indexOfSlab(int, int, int)}
+   */
+  public int indexOfSlab(int e, int x, int y) {
+    int slab = getSlab(x, y);
+    if (slab == AMBIGUOUS)
+      return this.graph.indexOfSlab(e, x, y);
+    if (slab == NONE || this.graph.getSlabEdge(slab) != e)
+      return NONE;
+    return slab - this.graph.getFirstSlab(e);
+  }
+
+  /**
+   * Same as {@link CompactGraph#isVertexPoint(int, int, int)}
+   */
+  public boolean isVertexPoint(int v, int x, int y) {
+    int vertex = getVertex(x, y);
+    if (vertex == AMBIGUOUS)
+      return this.graph.isVertexPoint(v, x, y);
+    return vertex == v;
+  }
+}
@@ -0,0 +1,153 @@
+package dev.mtbt.graph;
+
+import java.util.Arrays;
+
+/**
+ * Uniform grid over the slabs of a {@link CompactGraph} answering nearest-slab and radius queries.
+ * <p>
+ * Every grid cell lists the global indices of the slabs inside it in increasing order. A nearest
+ * slab query visits square rings of cells around the query point until no unvisited cell can hold
+ * a slab as close as the best one found so far, so on a skeleton it touches only a few cells.
+ */
+public class SlabGridIndex {
+  private static final int CELL_SIZE = 16;
+
+  private final CompactGraph graph;
+  private final int originX;
+  private final int originY;
+  private final int columns;
+  private final int rows;
+  /**
+   * Slabs of cell c are cellSlabs[cellOffsets[c]] ... cellSlabs[cellOffsets[c + 1] - 1]
+   */
+  private final int[] cellOffsets;
+  private final int[] cellSlabs;
+
+  public SlabGridIndex(CompactGraph graph) {
+    this.graph = graph;
+    int n = graph.getSlabCount();
+    int minX = Integer.MAX_VALUE, minY = Integer.MAX_VALUE;
+    int maxX = Integer.MIN_VALUE, maxY = Integer.MIN_VALUE;
+    for (int s = 0; s < n; s++) {
+      minX = Math.min(minX, graph.getSlabX(s));
+      minY = Math.min(minY, graph.getSlabY(s));
+      maxX = Math.max(maxX, graph.getSlabX(s));
+      maxY = Math.max(maxY, graph.getSlabY(s));
+    }
+    if (n == 0) {
+      minX = minY = maxX = maxY = 0;
+    }
+    this.originX = minX;
+    this.originY = minY;
+    this.columns = (maxX - minX) / CELL_SIZE + 1;
+    this.rows = (maxY - minY) / CELL_SIZE + 1;
+
+    this.cellOffsets = new int[this.columns * this.rows + 1];
+    for (int s = 0; s < n; s++) {
+      this.cellOffsets[cellOf(s) + 1]++;
+    }
+    for (int c = 0; c < this.columns * this.rows; c++) {
+      this.cellOffsets[c + 1] += this.cellOffsets[c];
+    }
+    this.cellSlabs = new int[n];
+    int[] fill = Arrays.copyOf(this.cellOffsets, this.columns * this.rows);
+    for (int s = 0; s < n; s++) {
+      this.cellSlabs[fill[cellOf(s)]++] = s;
+    }
+  }
+
+  private int cellOf(int slab) {
+    return ((this.graph.getSlabY(slab) - this.originY) / CELL_SIZE) * this.columns
+        + (this.graph.getSlabX(slab) - this.originX) / CELL_SIZE;
+  }
+
+  private static int floorDiv(int a) {
+    return Math.floorDiv(a, CELL_SIZE);
+  }
+
+  /**
+   * Nearest slab to (x, y). Among equally distant slabs the one with the lowest global index wins,
+   * which is the first one found by a linear scan over edges and their slabs.
+   *
+   * @return global slab index or -1 if there are no slabs
+   */
+  public int nearest(int x, int y) {
+    if (this.cellSlabs.length == 0) {
+      return -1;
+    }
+    final int cx = floorDiv(x - this.originX);
+    final int cy = floorDiv(y - this.originY);
+    // rings beyond this one lie entirely outside of the grid
+    final int maxRing = Math.max(Math.max(cx, this.columns - 1 - cx),
+        Math.max(cy, this.rows - 1 - cy));
+    long bestDistance = Long.MAX_VALUE;
+    int best = -1;
+    for (int ring = 0; ring <= maxRing; ring++) {
+      if (best >= 0) {
+        // any point in this ring is at least (ring - 1) * CELL_SIZE + 1 away along some axis
+        long lowerBound = (long) (ring - 1) * CELL_SIZE + 1;
+        if (lowerBound * lowerBound > bestDistance) {
+          break;
+        }
+      }
+      for (int j = cy - ring; j <= cy + ring; j++) {
+        if (j < 0 || j >= this.rows)
+          continue;
+        boolean edgeRow = j == cy - ring || j == cy + ring;
+        int step = edgeRow ? 1 : Math.max(1, 2 * ring);
+        for (int i = cx - ring; i <= cx + ring; i += step) {
+          if (i < 0 || i >= this.columns)
+            continue;
+          int cell = j * this.columns + i;
+          for (int k = this.cellOffsets[cell]; k < this.cellOffsets[cell + 1]; k++) {
+            int s = this.cellSlabs[k];
+            long dx = this.graph.getSlabX(s) - x;
+            long dy = this.graph.getSlabY(s) - y;
+            long dist = dx * dx + dy * dy;
+            if (dist < bestDistance || (dist == bestDistance && s < best)) {
+              bestDistance = dist;
+              best = s;
+            }
+          }
+        }
+      }
+    }
+    return best;
+  }
+
+  /**
+   * @return global indices of slabs not further than radius from (x, y), in increasing order
+   */
+  public int[] within(int x, int y, double radius) {
+    if (this.cellSlabs.length == 0 || radius < 0) {
+      return new int[0];
+    }
+    int r = (int) Math.ceil(radius);
+    int fromI = Math.max(0, floorDiv(x - r - this.originX));
+    int toI = Math.min(this.columns - 1, floorDiv(x + r - this.originX));
+    int fromJ = Math.max(0, floorDiv(y - r - this.originY));
+    int toJ = Math.min(this.rows - 1, floorDiv(y + r - this.originY));
+    double radius2 = radius * radius;
+    int[] result = new int[16];
+    int n = 0;
+    for (int j = fromJ; j <= toJ; j++) {
+      for (int i = fromI; i <= toI; i++) {
+        int cell = j * this.columns + i;
+        for (int k = this.cellOffsets[cell]; k < this.cellOffsets[cell + 1]; k++) {
+          int s = this.cellSlabs[k];
+          long dx = this.graph.getSlabX(s) - x;
+          long dy = this.graph.getSlabY(s) - y;
+          if (dx * dx + dy * dy <= radius2) {
+            if (n == result.length) {
+              result = Arrays.copyOf(result, 2 * n);
+            }
+            result[n++] = s;
+          }
+        }
+      }
+    }
+    result = Arrays.copyOf(result, n);
+    Arrays.sort(result);
+    return result;
+  }
+}
@@ -1,12 +1,18 @@
 package dev.mtbt.graph;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.NavigableSet;
 import java.util.TreeSet;
 import static java.util.stream.Collectors.toList;
 
 public class Vertex implements Comparable<Vertex> {
-  protected TreeSet<Point> points;
-  protected TreeSet<Edge> branches;
+  protected NavigableSet<Point> points;
+  protected NavigableSet<Edge> branches;
+  /**
+   * Index of the vertex in {@link CompactGraph} built from its graph (-1 if none)
+   */
+  protected int id = -1;
 
   public Vertex() {
     this.points = new TreeSet<>();
@@ -19,6 +25,10 @@ public class Vertex implements Comparable<Vertex> {
     points.addAll(v.getPoints().stream().map(Point::new).collect(toList()));
   }
 
+  public int getId() {
+    return this.id;
+  }
+
   public void addPoint(Point p) {
     this.points.add(p);
   }
@@ -27,7 +37,7 @@ public class Vertex implements Comparable<Vertex> {
     return points != null && points.contains(p);
   }
 
-  public TreeSet<Point> getPoints() {
+  public NavigableSet<Point> getPoints() {
     return this.points;
   }
 
@@ -35,10 +45,18 @@ public class Vertex implements Comparable<Vertex> {
     this.branches.add(e);
   }
 
-  public TreeSet<Edge> getBranches() {
+  public NavigableSet<Edge> getBranches() {
     return this.branches;
   }
 
+  /**
+   * Makes points and branches read-only, see {@link Graph#seal()}
+   */
+  protected void seal() {
+    this.points = Collections.unmodifiableNavigableSet(this.points);
+    this.branches = Collections.unmodifiableNavigableSet(this.branches);
+  }
+
   public boolean isLeaf() {
     return branches.size() < 2;
   }
@@ -62,6 +80,7 @@ public class Vertex implements Comparable<Vertex> {
   public Vertex cloneUnconnected() {
     final Vertex clone = new Vertex();
     clone.points.addAll(points.stream().map(Point::clone).collect(toList()));
+    clone.id = this.id;
     return clone;
   }
 
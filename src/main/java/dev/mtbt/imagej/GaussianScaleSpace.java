@@ -0,0 +1,93 @@
+package dev.mtbt.imagej;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Memoized Gaussian blurs of a single image.
+ * <p>
+ * Gaussian kernels form a semigroup: blurring with sigma1 and then with sqrt(sigma2^2 - sigma1^2)
+ * equals blurring with sigma2. Levels on a grid of {@link #ANCHOR_SPACING} (anchors) are blurred
+ * directly from the original, any other level incrementally from the closest smaller anchor, which
+ * is much cheaper than a full blur for small steps of sigma.
+ * <p>
+ * Each level depends only on its sigma, never on the levels cached before, so the same frame and
+ * sigma always give the same pixels.
+ */
+public class GaussianScaleSpace {
+  private static final double ACCURACY = 0.02;
+  /**
+   * Spacing of anchor levels, bounds the sigma of incremental blurs
+   */
+  public static final double ANCHOR_SPACING = 1.0;
+  private static final double EPSILON = 1e-9;
+
+  private final ImageProcessor original;
+  private final int maxLevels;
+  private final GaussianBlur gaussianBlur = new GaussianBlur();
+  /**
+   * Cached levels by sigma in access order (least recently used first)
+   */
+  private final LinkedHashMap<Double, FloatProcessor> levels = new LinkedHashMap<>(16, 0.75f, true);
+
+  public GaussianScaleSpace(ImageProcessor original, int maxLevels) {
+    this.original = original;
+    this.maxLevels = maxLevels;
+  }
+
+  /**
+   * Returns image blurred with given sigma. For sigma <= 0 the original processor is returned.
+   * Returned processors are shared and must not be modified.
+   */
+  public synchronized ImageProcessor get(double sigma) {
+    if (sigma <= 0) {
+      return this.original;
+    }
+    FloatProcessor level = this.levels.get(sigma);
+    if (level != null) {
+      return level;
+    }
+    double anchor = getAnchor(sigma);
+    if (anchor <= 0 || sigma - anchor < EPSILON) {
+      level = this.blur(this.toFloat(this.original), sigma);
+    } else {
+      FloatProcessor base = this.levels.get(anchor);
+      if (base == null) {
+        base = this.blur(this.toFloat(this.original), anchor);
+        this.put(anchor, base);
+      }
+      level = this.blur((FloatProcessor) base.duplicate(),
+          Math.sqrt(sigma * sigma - anchor * anchor));
+    }
+    this.put(sigma, level);
+    return level;
+  }
+
+  /**
+   * Sigma of the level the given level is blurred from, 0 for the original
+   */
+  static double getAnchor(double sigma) {
+    return Math.floor(sigma / ANCHOR_SPACING + EPSILON) * ANCHOR_SPACING;
+  }
+
+  private FloatProcessor toFloat(ImageProcessor ip) {
+    return (FloatProcessor) (ip instanceof FloatProcessor ? ip.duplicate() : ip.convertToFloat());
+  }
+
+  private FloatProcessor blur(FloatProcessor fp, double sigma) {
+    this.gaussianBlur.blurFloat(fp, sigma, sigma, ACCURACY);
+    return fp;
+  }
+
+  private void put(double sigma, FloatProcessor level) {
+    this.levels.put(sigma, level);
+    if (this.levels.size() > this.maxLevels) {
+      Iterator<Double> eldest = this.levels.keySet().iterator();
+      eldest.next();
+      eldest.remove();
+    }
+  }
+}
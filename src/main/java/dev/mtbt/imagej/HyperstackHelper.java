@@ -4,6 +4,7 @@ import ij.ImagePlus;
 import ij.plugin.Duplicator;
 import ij.plugin.SubHyperstackMaker;
 import ij.process.ImageConverter;
+import ij.process.ImageProcessor;
 
 public class HyperstackHelper {
   public static ImagePlus extractFrame(ImagePlus imp) {
@@ -15,6 +16,14 @@ public class HyperstackHelper {
         Integer.toString(slice), Integer.toString(frame));
   }
 
+  /**
+   * Returns processor of a single plane without duplicating the hyperstack. Pixels are shared with
+   * the image, so the processor should be treated as read-only.
+   */
+  public static ImageProcessor getPlaneProcessor(ImagePlus imp, int channel, int slice, int frame) {
+    return imp.getStack().getProcessor(imp.getStackIndex(channel, slice, frame));
+  }
+
   public static ImagePlus extractChannel(ImagePlus imp, int channel) {
     Duplicator duplicator = new Duplicator();
     return duplicator.run(imp, channel, channel, imp.getZ(), imp.getZ(), 1, imp.getNFrames());
@@ -0,0 +1,83 @@
+package dev.mtbt.util;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Uniform grid over bounding boxes of items (e.g. cell polylines of a single frame) answering which
+ * items may intersect an area.
+ * <p>
+ * Every item is listed in all grid cells its bounding box touches. Only occupied grid cells are
+ * stored, so the grid does not depend on the extent of the image. Bounds are closed, so boxes of
+ * horizontal or vertical lines (zero width or height) are found as well.
+ */
+public class BoundsGridIndex<T> {
+  private static final int CELL_SIZE = 32;
+
+  private final List<T> items;
+  private final Rectangle2D[] bounds;
+  /**
+   * Indices of items touching a grid cell (in increasing order) by packed cell coordinates
+   */
+  private final Map<Long, List<Integer>> cells = new HashMap<>();
+
+  public BoundsGridIndex(List<T> items, Function<T, Rectangle2D> boundsOf) {
+    this.items = new ArrayList<>(items);
+    this.bounds = new Rectangle2D[this.items.size()];
+    for (int i = 0; i < this.bounds.length; i++) {
+      Rectangle2D box = boundsOf.apply(this.items.get(i));
+      this.bounds[i] = box;
+      for (int cy = cellOf(box.getMinY()); cy <= cellOf(box.getMaxY()); cy++) {
+        for (int cx = cellOf(box.getMinX()); cx <= cellOf(box.getMaxX()); cx++) {
+          this.cells.computeIfAbsent(key(cx, cy), key -> new ArrayList<>()).add(i);
+        }
+      }
+    }
+  }
+
+  private static int cellOf(double coordinate) {
+    return (int) Math.floor(coordinate / CELL_SIZE);
+  }
+
+  private static long key(int cx, int cy) {
+    return ((long) cx << 32) | (cy & 0xffffffffL);
+  }
+
+  private static boolean overlap(Rectangle2D a, Rectangle2D b) {
+    return a.getMinX() <= b.getMaxX() && b.getMinX() <= a.getMaxX() && a.getMinY() <= b.getMaxY()
+        && b.getMinY() <= a.getMaxY();
+  }
+
+  /**
+   * Items whose bounding box intersects the area, in the order they were given
+   */
+  public List<T> query(Rectangle2D area) {
+    BitSet found = new BitSet(this.bounds.length);
+    for (int cy = cellOf(area.getMinY()); cy <= cellOf(area.getMaxY()); cy++) {
+      for (int cx = cellOf(area.getMinX()); cx <= cellOf(area.getMaxX()); cx++) {
+        List<Integer> cell = this.cells.get(key(cx, cy));
+        if (cell != null) {
+          for (int i : cell) {
+            if (!found.get(i) && overlap(this.bounds[i], area)) {
+              found.set(i);
+            }
+          }
+        }
+      }
+    }
+    List<T> result = new ArrayList<>(found.cardinality());
+    for (int i = found.nextSetBit(0); i >= 0; i = found.nextSetBit(i + 1)) {
+      result.add(this.items.get(i));
+    }
+    return result;
+  }
+
+  public int size() {
+    return this.items.size();
+  }
+}
@@ -36,9 +36,13 @@ public class Geometry {
    * @return
    */
   public static double perpendicularDistance(Point l1, Point l2, Point p) {
-    double dy = l2.y - l1.y;
-    double dx = l2.x - l1.x;
-    double numerator = Math.abs(dy * p.x - dx * p.y + l2.x * l1.y - l2.y * l1.x);
+    return perpendicularDistance(l1.x, l1.y, l2.x, l2.y, p.x, p.y);
+  }
+
+  public static double perpendicularDistance(int l1x, int l1y, int l2x, int l2y, int px, int py) {
+    double dy = l2y - l1y;
+    double dx = l2x - l1x;
+    double numerator = Math.abs(dy * px - dx * py + l2x * l1y - l2y * l1x);
     double denominator = Math.sqrt(dy * dy + dx * dx);
     return numerator / denominator;
   }
@@ -80,13 +84,91 @@ public class Geometry {
   }
 
   public static ArrayList<Point> simplifyPolyline(List<Point> polyLine, double tolerance) {
-    ArrayList<Point> result = simplifyPolylineOneWay(polyLine, tolerance);
-    Collections.reverse(result);
-    result = simplifyPolylineOneWay(result, tolerance);
-    Collections.reverse(result);
+    int n = polyLine.size();
+    int[] xs = new int[n];
+    int[] ys = new int[n];
+    for (int i = 0; i < n; i++) {
+      xs[i] = polyLine.get(i).x;
+      ys[i] = polyLine.get(i).y;
+    }
+    boolean[] keep = new boolean[n];
+    ArrayList<Point> result = new ArrayList<>(simplifyPolyline(xs, ys, n, tolerance, keep));
+    for (int i = 0; i < n; i++) {
+      if (keep[i])
+        result.add(polyLine.get(i));
+    }
     return result;
   }
 
+  /**
+   * Iterative form of {@link #simplifyPolyline(List, double)} over coordinate arrays. The
+   * Ramer–Douglas–Peucker pass is run forward and then backward over the kept points, ranges are
+   * split into [begin, farthest) and [farthest, end] exactly as in
+   * {@link #simplifyPolylineOneWay(List, double)}.
+   *
+   * @param n number of points
+   * @param keep output, keep[i] is set iff i-th point belongs to the simplified polyline
+   * @return number of kept points
+   */
+  public static int simplifyPolyline(int[] xs, int[] ys, int n, double tolerance,
+      boolean[] keep) {
+    if (n == 0) {
+      return 0;
+    }
+    Arrays.fill(keep, 0, n, false);
+    // order of visited points followed by stack of ranges (ranges on the stack are disjoint)
+    int[] work = new int[3 * n];
+    for (int i = 0; i < n; i++) {
+      work[i] = i;
+    }
+    simplifyPolylineOneWay(xs, ys, work, n, tolerance, keep, work, n);
+    int m = 0;
+    for (int i = n - 1; i >= 0; i--) {
+      if (keep[i]) {
+        work[m++] = i;
+        keep[i] = false;
+      }
+    }
+    simplifyPolylineOneWay(xs, ys, work, m, tolerance, keep, work, n);
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      if (keep[i])
+        count++;
+    }
+    return count;
+  }
+
+  private static void simplifyPolylineOneWay(int[] xs, int[] ys, int[] order, int n,
+      double tolerance, boolean[] keep, int[] stack, int bottom) {
+    int top = bottom;
+    stack[top++] = 0;
+    stack[top++] = n - 1;
+    while (top > bottom) {
+      int last = stack[--top];
+      int first = stack[--top];
+      int a = order[first], b = order[last];
+      double maxDistance = 0;
+      int maxIndex = 0;
+      for (int i = first + 1; i < last; i++) {
+        int p = order[i];
+        double dist = perpendicularDistance(xs[a], ys[a], xs[b], ys[b], xs[p], ys[p]);
+        if (dist > maxDistance) {
+          maxIndex = i;
+          maxDistance = dist;
+        }
+      }
+      if (maxDistance > tolerance) {
+        stack[top++] = first;
+        stack[top++] = maxIndex - 1;
+        stack[top++] = maxIndex;
+        stack[top++] = last;
+      } else {
+        keep[a] = true;
+        keep[b] = true;
+      }
+    }
+  }
+
   public static double polylineLength(List<Point2D> polyline) {
     return polyline.stream().skip(1)
         .reduce(new Pair<Point2D, Double>(polyline.get(0), 0.0),
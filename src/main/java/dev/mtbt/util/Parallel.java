@@ -0,0 +1,63 @@
+package dev.mtbt.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+public class Parallel {
+  /**
+   * Single pool shared by all calls, the parallelism of a call is limited by the number of tasks it
+   * forks, so threads do not pile up with every distinct parallelism value
+   */
+  private static final ForkJoinPool pool =
+      new ForkJoinPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+
+  /**
+   * Run `task` for every index in [0, n) using at most `parallelism` threads (and at most the number
+   * of processors) and wait for all of them to finish. Runs in the calling thread if parallelism is
+   * 1. Nested calls made from a pool thread fork into the pool of the outer call.
+   */
+  public static void forEach(int parallelism, int n, IntConsumer task) {
+    if (parallelism <= 1 || n <= 1) {
+      for (int i = 0; i < n; i++) {
+        task.accept(i);
+      }
+      return;
+    }
+    AtomicInteger next = new AtomicInteger();
+    List<ForkJoinTask<?>> workers = new ArrayList<>();
+    for (int w = Math.min(parallelism, n); w > 0; w--) {
+      workers.add(ForkJoinTask.adapt(() -> {
+        for (int i = next.getAndIncrement(); i < n; i = next.getAndIncrement()) {
+          task.accept(i);
+        }
+      }));
+    }
+    Thread thread = Thread.currentThread();
+    if (thread instanceof ForkJoinWorkerThread
+        && ((ForkJoinWorkerThread) thread).getPool() == pool) {
+      ForkJoinTask.invokeAll(workers);
+      return;
+    }
+    try {
+      pool.submit(() -> ForkJoinTask.invokeAll(workers)).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package dev.mtbt.cells.serialization;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.cells.Cell;
+import dev.mtbt.cells.CellCollection;
+import dev.mtbt.cells.skeleton.PolylineCellFrame;
+import dev.mtbt.cells.skeleton.Skeleton;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+public class TrackingCheckpointTest {
+
+  @Test
+  public void itWritesLatestCheckpointAtomically() throws Exception {
+    ImageStack stack = new ImageStack(40, 20);
+    for (int t = 0; t < 3; t++) {
+      stack.addSlice(new FloatProcessor(40, 20));
+    }
+    ImagePlus imp = new ImagePlus("movie", stack);
+    imp.setDimensions(1, 1, 3);
+
+    CellCollection collection = new CellCollection();
+    Cell cell = new Cell(1, new PolylineCellFrame(
+        Arrays.asList(new Point2D.Double(5, 10), new Point2D.Double(30, 10))));
+    cell.pushFrame(new PolylineCellFrame(
+        Arrays.asList(new Point2D.Double(6, 10), new Point2D.Double(32, 10))));
+    collection.addToCollection(cell);
+
+    File directory = Files.createTempDirectory("checkpoints").toFile();
+    File file = new File(directory, "movie.ckpt");
+    try {
+      CheckpointWriter writer = new CheckpointWriter(file);
+      writer.checkpoint(new TrackingCheckpoint(imp, collection, 1, 1, 2.0, 0.0,
+          Skeleton.Engine.Native, false, 1));
+      writer.checkpoint(new TrackingCheckpoint(imp, collection, 1, 1, 2.0, 0.0,
+          Skeleton.Engine.Native, true, 2));
+      writer.close();
+
+      TrackingCheckpoint checkpoint = TrackingCheckpoint.read(file);
+      assertEquals(2, checkpoint.getLastFrame());
+      assertTrue(checkpoint.isMotionPrediction());
+      assertTrue(checkpoint.matches(imp));
+      Cell restored = checkpoint.getCellCollection().getCells(2).get(0);
+      assertEquals(cell.getName(), restored.getName());
+      assertEquals(cell.getFrame(2).toPolyline(), restored.getFrame(2).toPolyline());
+      assertArrayEquals(new String[] {"movie.ckpt"}, directory.list());
+    } finally {
+      for (File f : directory.listFiles()) {
+        f.delete();
+      }
+      directory.delete();
+    }
+  }
+
+  @Test
+  public void itDoesNotMatchOtherImagesWithTheSameTitleAndDimensions() {
+    ImagePlus imp = movie(0f);
+    ImagePlus other = movie(1f);
+    TrackingCheckpoint checkpoint = new TrackingCheckpoint(imp, new CellCollection(), 1, 1, 2.0,
+        0.0, Skeleton.Engine.Native, false, 1);
+
+    assertTrue(checkpoint.matches(movie(0f)));
+    assertFalse(checkpoint.matches(other));
+    File directory = new File("checkpoints");
+    assertEquals(CheckpointWriter.getFile(directory, imp),
+        CheckpointWriter.getFile(directory, movie(0f)));
+    assertNotEquals(CheckpointWriter.getFile(directory, imp),
+        CheckpointWriter.getFile(directory, other));
+  }
+
+  private static ImagePlus movie(float value) {
+    ImageStack stack = new ImageStack(40, 20);
+    for (int t = 0; t < 3; t++) {
+      FloatProcessor fp = new FloatProcessor(40, 20);
+      fp.setf(20, 10, value);
+      stack.addSlice(fp);
+    }
+    ImagePlus imp = new ImagePlus("movie", stack);
+    imp.setDimensions(1, 1, 3);
+    return imp;
+  }
+}
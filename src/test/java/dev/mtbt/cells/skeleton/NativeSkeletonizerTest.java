@@ -0,0 +1,173 @@
+package dev.mtbt.cells.skeleton;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.graph.Edge;
+import dev.mtbt.graph.Graph;
+import dev.mtbt.graph.Vertex;
+import ij.process.ByteProcessor;
+
+public class NativeSkeletonizerTest {
+
+  private static ByteProcessor rectangles(int w, int h, int[]... rectangles) {
+    ByteProcessor bp = new ByteProcessor(w, h);
+    bp.setColor(255);
+    for (int[] r : rectangles) {
+      bp.setRoi(r[0], r[1], r[2], r[3]);
+      bp.fill();
+    }
+    bp.resetRoi();
+    return bp;
+  }
+
+  private static int countTags(ByteProcessor tags, byte tag) {
+    int count = 0;
+    for (byte value : (byte[]) tags.getPixels()) {
+      if (value == tag)
+        count++;
+    }
+    return count;
+  }
+
+  private static long leaves(Graph graph) {
+    return graph.getVertices().stream().filter(Vertex::isLeaf).count();
+  }
+
+  @Test
+  public void itThinsBarsToSingleEdge() {
+    Graph graph = new Graph();
+    ByteProcessor tags = NativeSkeletonizer
+        .skeletonize(rectangles(80, 30, new int[] {5, 10, 60, 7}), 1, graph);
+    assertEquals(2, countTags(tags, NativeSkeletonizer.END_POINT));
+    assertEquals(0, countTags(tags, NativeSkeletonizer.JUNCTION));
+    assertEquals(2, graph.getVertices().size());
+    assertEquals(1, graph.getEdges().size());
+    Edge edge = graph.getEdges().first();
+    assertEquals(countTags(tags, NativeSkeletonizer.SLAB), edge.getSlabs().size());
+  }
+
+  @Test
+  public void itTracesJunctions() {
+    Graph graph = new Graph();
+    NativeSkeletonizer.skeletonize(
+        rectangles(80, 80, new int[] {10, 36, 60, 7}, new int[] {36, 10, 7, 60}), 1, graph);
+    assertEquals(4, leaves(graph));
+    long junctions = graph.getVertices().stream().filter(v -> v.getBranches().size() > 2).count();
+    assertEquals(1, junctions);
+    assertEquals(4, graph.getEdges().size());
+  }
+
+  @Test
+  public void itTracesCyclesWithoutVertices() {
+    ByteProcessor ring = rectangles(60, 60, new int[] {10, 10, 40, 40});
+    ring.setColor(0);
+    ring.setRoi(16, 16, 28, 28);
+    ring.fill();
+    ring.resetRoi();
+    Graph graph = new Graph();
+    ByteProcessor tags = NativeSkeletonizer.skeletonize(ring, 1, graph);
+    assertEquals(0, countTags(tags, NativeSkeletonizer.END_POINT));
+    assertEquals(1, graph.getVertices().size());
+    assertEquals(1, graph.getEdges().size());
+    Edge loop = graph.getEdges().first();
+    assertEquals(loop.getV1(), loop.getV2());
+    assertEquals(countTags(tags, NativeSkeletonizer.SLAB) - 1, loop.getSlabs().size());
+  }
+
+  @Test
+  public void itThinsRowBandsIndependently() {
+    Random random = new Random(3);
+    ByteProcessor blobs = new ByteProcessor(300, 300);
+    blobs.setColor(255);
+    blobs.setLineWidth(6);
+    for (int i = 0; i < 60; i++) {
+      blobs.drawLine(random.nextInt(300), random.nextInt(300), random.nextInt(300),
+          random.nextInt(300));
+    }
+    Graph sequentialGraph = new Graph();
+    Graph parallelGraph = new Graph();
+    ByteProcessor sequential = NativeSkeletonizer.skeletonize(blobs, 1, sequentialGraph);
+    ByteProcessor parallel = NativeSkeletonizer.skeletonize(blobs, 4, parallelGraph);
+    assertArrayEquals((byte[]) sequential.getPixels(), (byte[]) parallel.getPixels());
+    assertEquals(sequentialGraph.getEdges().size(), parallelGraph.getEdges().size());
+    assertTrue(sequentialGraph.getEdges().size() > 0);
+  }
+
+  @Test
+  public void itUpdatesOnlyChangedComponents() {
+    Random random = new Random(5);
+    ByteProcessor before = new ByteProcessor(300, 300);
+    before.setColor(255);
+    for (int i = 0; i < 40; i++) {
+      before.fillOval(random.nextInt(280), random.nextInt(280), 6 + random.nextInt(20),
+          6 + random.nextInt(20));
+    }
+    ByteProcessor after = (ByteProcessor) before.duplicate();
+    after.setColor(0);
+    after.fillOval(100, 100, 40, 30);
+    after.setColor(255);
+    after.fillOval(20, 200, 60, 12);
+
+    Graph previousGraph = new Graph();
+    ByteProcessor previousTags = NativeSkeletonizer.skeletonize(before, 1, previousGraph);
+    Graph expectedGraph = new Graph();
+    ByteProcessor expected = NativeSkeletonizer.skeletonize(after, 1, expectedGraph);
+    Graph graph = new Graph();
+    ByteProcessor updated =
+        NativeSkeletonizer.update(before, previousTags, previousGraph, after, 2, graph);
+
+    assertArrayEquals((byte[]) expected.getPixels(), (byte[]) updated.getPixels());
+    assertEquals(expectedGraph.getVertices(), graph.getVertices());
+    assertEquals(expectedGraph.getEdges().size(), graph.getEdges().size());
+    Iterator<Edge> edges = graph.getEdges().iterator();
+    for (Edge edge : expectedGraph.getEdges()) {
+      assertEquals(edge.getSlabs(), edges.next().getSlabs());
+    }
+  }
+
+  @Test
+  public void itSkeletonizesOnlyRegions() {
+    Random random = new Random(9);
+    ByteProcessor mask = new ByteProcessor(300, 300);
+    mask.setColor(255);
+    for (int i = 0; i < 40; i++) {
+      mask.fillOval(random.nextInt(280), random.nextInt(280), 6 + random.nextInt(20),
+          6 + random.nextInt(20));
+    }
+    List<Rectangle> boxes = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      boxes.add(new Rectangle(random.nextInt(260), random.nextInt(260), 10 + random.nextInt(60),
+          10 + random.nextInt(60)));
+    }
+    List<Rectangle> regions = MotionPredictor.merge(boxes);
+    ByteProcessor cleared = new ByteProcessor(300, 300);
+    for (Rectangle region : regions) {
+      mask.setRoi(region);
+      cleared.insert(mask.crop(), region.x, region.y);
+    }
+    mask.resetRoi();
+
+    Graph expectedGraph = new Graph();
+    ByteProcessor expected = NativeSkeletonizer.skeletonize(cleared, 1, expectedGraph);
+    Graph graph = new Graph();
+    ByteProcessor tags = NativeSkeletonizer.skeletonize(mask, regions, 2, graph);
+
+    assertArrayEquals((byte[]) expected.getPixels(), (byte[]) tags.getPixels());
+    assertEquals(expectedGraph.getVertices(), graph.getVertices());
+    assertEquals(expectedGraph.getEdges().size(), graph.getEdges().size());
+    Iterator<Edge> edges = graph.getEdges().iterator();
+    for (Edge edge : expectedGraph.getEdges()) {
+      assertEquals(edge.getSlabs(), edges.next().getSlabs());
+    }
+  }
+}
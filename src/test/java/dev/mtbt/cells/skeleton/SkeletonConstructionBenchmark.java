@@ -0,0 +1,156 @@
+package dev.mtbt.cells.skeleton;
+
+import static java.util.function.Function.identity;
+import static java.util.stream.Collectors.toMap;
+import static java.util.stream.Collectors.toSet;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import dev.mtbt.graph.Edge;
+import dev.mtbt.graph.Graph;
+import dev.mtbt.graph.Vertex;
+import dev.mtbt.vendor.shapeindex.ShapeIndexMap;
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+import ij.process.ImageProcessor;
+import sc.fiji.analyzeSkeleton.AnalyzeSkeleton_;
+import sc.fiji.skeletonize3D.Skeletonize3D_;
+
+/**
+ * Measures skeleton construction time and allocated bytes per frame. Compares the one-pass
+ * conversion of AnalyzeSkeleton graphs with the previous convert-then-clone one. Run manually:
+ *
+ * <pre>
+ * java ... dev.mtbt.cells.skeleton.SkeletonConstructionBenchmark [stack.tif...]
+ * </pre>
+ *
+ * Without arguments a synthetic frame with random rods is used. Frames are turned into thresholded
+ * shape index maps (blur 2, threshold 0) the same way as in the skeleton steps.
+ */
+public class SkeletonConstructionBenchmark {
+  private static final int RUNS = 10;
+
+  private static final com.sun.management.ThreadMXBean threadBean =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  public static void main(String[] args) {
+    ImageStack frames = new ImageStack();
+    if (args.length == 0) {
+      frames = new ImageStack(1024, 1024);
+      frames.addSlice(syntheticFrame(1024, 1));
+    }
+    for (String path : args) {
+      ImagePlus imp = IJ.openImage(path);
+      if (frames.getSize() == 0) {
+        frames = new ImageStack(imp.getWidth(), imp.getHeight());
+      }
+      for (int i = 1; i <= imp.getStackSize(); i++) {
+        frames.addSlice(imp.getStack().getProcessor(i));
+      }
+    }
+
+    for (int i = 1; i <= frames.getSize(); i++) {
+      ImagePlus map = thresholdedShapeIndexMap(frames.getProcessor(i));
+      sc.fiji.analyzeSkeleton.Graph[] graphs = analyze(map);
+      System.out.println("frame " + i + ": " + graphs.length + " graphs");
+      measure("  legacy conversion", () -> legacyConversion(graphs));
+      measure("  one-pass conversion", () -> onePassConversion(graphs));
+      measure("  Skeleton(ImagePlus)", () -> new Skeleton(map));
+    }
+  }
+
+  private static void measure(String label, Supplier<Object> task) {
+    // warm up
+    for (int i = 0; i < 3; i++) {
+      task.get();
+    }
+    long[] nanos = new long[RUNS];
+    long bytes = 0;
+    for (int i = 0; i < RUNS; i++) {
+      long allocated = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      long start = System.nanoTime();
+      task.get();
+      nanos[i] = System.nanoTime() - start;
+      bytes += threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocated;
+    }
+    Arrays.sort(nanos);
+    System.out.printf("%-24s %8.2f ms %10d kB%n", label, nanos[RUNS / 2] / 1e6,
+        bytes / RUNS / 1024);
+  }
+
+  private static Graph onePassConversion(sc.fiji.analyzeSkeleton.Graph[] graphs) {
+    Graph graph = new Graph();
+    for (sc.fiji.analyzeSkeleton.Graph g : graphs) {
+      graph.addGraph(g);
+    }
+    return graph;
+  }
+
+  /**
+   * Construction used by Skeleton before the one-pass conversion
+   */
+  private static Graph legacyConversion(sc.fiji.analyzeSkeleton.Graph[] analyzed) {
+    Graph graph = new Graph();
+    Set<Graph> graphs = Arrays.stream(analyzed).map(Graph::new).collect(toSet());
+    Map<Vertex, Vertex> vertexMap = new HashMap<>();
+    Map<Edge, Edge> edgeMap = new HashMap<>();
+    graphs.forEach(g -> vertexMap
+        .putAll(g.getVertices().stream().collect(toMap(identity(), Vertex::cloneUnconnected))));
+    Function<Edge, Edge> cloner = e -> e.clone(vertexMap.get(e.getV1()), vertexMap.get(e.getV2()));
+    graphs.forEach(g -> edgeMap.putAll(g.getEdges().stream().collect(toMap(identity(), cloner))));
+    edgeMap.keySet().stream().map(edgeMap::get).forEach(graph::addEdge);
+    vertexMap.keySet().stream().map(vertexMap::get).forEach(graph::addVertex);
+    return graph;
+  }
+
+  private static sc.fiji.analyzeSkeleton.Graph[] analyze(ImagePlus map) {
+    ImagePlus impSkeleton = new ImagePlus("skeleton", map.getProcessor().convertToByteProcessor());
+    Skeletonize3D_ skeletonizer = new Skeletonize3D_();
+    skeletonizer.setup("", impSkeleton);
+    skeletonizer.run(impSkeleton.getProcessor());
+    AnalyzeSkeleton_ analyzeSkeleton = new AnalyzeSkeleton_();
+    analyzeSkeleton.setup("", impSkeleton);
+    analyzeSkeleton.run(AnalyzeSkeleton_.NONE, false, false, impSkeleton, true, false);
+    return analyzeSkeleton.getGraphs();
+  }
+
+  private static ImagePlus thresholdedShapeIndexMap(ImageProcessor frame) {
+    FloatProcessor map = (FloatProcessor) ShapeIndexMap
+        .getShapeIndexMap(new ImagePlus("", frame), 2, 1).getProcessor();
+    float[] pixels = (float[]) map.getPixels();
+    float[] thresholded = new float[pixels.length];
+    for (int i = 0; i < pixels.length; i++) {
+      thresholded[i] = pixels[i] > 0 ? pixels[i] : Float.NEGATIVE_INFINITY;
+    }
+    FloatProcessor fp = new FloatProcessor(map.getWidth(), map.getHeight(), thresholded);
+    fp.setMinAndMax(map.getMin(), map.getMax());
+    return new ImagePlus("", fp);
+  }
+
+  /**
+   * Dark background with bright randomly placed rods, roughly like a phase contrast frame
+   */
+  private static ImageProcessor syntheticFrame(int size, long seed) {
+    Random random = new Random(seed);
+    ByteProcessor bp = new ByteProcessor(size, size);
+    bp.setLineWidth(7);
+    bp.setColor(200);
+    for (int i = 0; i < size * size / 4000; i++) {
+      int x = random.nextInt(size), y = random.nextInt(size);
+      double angle = random.nextDouble() * Math.PI;
+      int length = 20 + random.nextInt(40);
+      bp.drawLine(x, y, x + (int) (length * Math.cos(angle)), y + (int) (length * Math.sin(angle)));
+    }
+    return bp;
+  }
+}
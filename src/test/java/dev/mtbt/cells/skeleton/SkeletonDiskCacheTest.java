@@ -0,0 +1,132 @@
+package dev.mtbt.cells.skeleton;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.graph.Edge;
+import dev.mtbt.graph.Graph;
+import ij.process.ByteProcessor;
+import ij.process.FloatProcessor;
+
+public class SkeletonDiskCacheTest {
+  private File directory;
+  private SkeletonDiskCache cache;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    this.directory = Files.createTempDirectory("skeleton-cache").toFile();
+    this.cache = new SkeletonDiskCache(this.directory);
+  }
+
+  @AfterEach
+  public void tearDown() {
+    for (File file : this.directory.listFiles()) {
+      file.delete();
+    }
+    this.directory.delete();
+  }
+
+  @Test
+  public void itHashesPixelContent() {
+    ByteProcessor a = new ByteProcessor(10, 10);
+    ByteProcessor b = new ByteProcessor(10, 10);
+    assertEquals(SkeletonDiskCache.hash(a), SkeletonDiskCache.hash(b));
+    b.set(3, 4, 1);
+    assertNotEquals(SkeletonDiskCache.hash(a), SkeletonDiskCache.hash(b));
+  }
+
+  @Test
+  public void itRestoresIndexMaps() {
+    float[] pixels = new float[12 * 7];
+    for (int i = 0; i < pixels.length; i++) {
+      pixels[i] = (float) Math.sin(i);
+    }
+    FloatProcessor map = new FloatProcessor(12, 7, pixels);
+    assertNull(this.cache.getIndexMap("frame", 2.0));
+    this.cache.setIndexMap("frame", 2.0, map);
+    FloatProcessor restored = this.cache.getIndexMap("frame", 2.0);
+    assertNotNull(restored);
+    assertEquals(12, restored.getWidth());
+    assertArrayEquals(pixels, (float[]) restored.getPixels());
+    assertEquals(map.getMin(), restored.getMin(), 1e-6);
+    assertNull(this.cache.getIndexMap("frame", 2.2));
+  }
+
+  @Test
+  public void itRestoresSkeletonGraphs() {
+    ByteProcessor mask = new ByteProcessor(80, 80);
+    mask.setColor(255);
+    mask.setRoi(10, 36, 60, 7);
+    mask.fill();
+    mask.setRoi(36, 10, 7, 60);
+    mask.fill();
+    Graph graph = new Graph();
+    NativeSkeletonizer.skeletonize(mask, 1, graph);
+
+    this.cache.setSkeletonGraph("frame", 2.0, 0.0, Skeleton.Engine.Native, graph);
+    assertNull(this.cache.getSkeletonGraph("frame", 2.0, 0.0, Skeleton.Engine.AnalyzeSkeleton));
+    Graph restored = this.cache.getSkeletonGraph("frame", 2.0, 0.0, Skeleton.Engine.Native);
+    assertNotNull(restored);
+    assertEquals(graph.getVertices(), restored.getVertices());
+    assertEquals(graph.getEdges().size(), restored.getEdges().size());
+    Iterator<Edge> edges = restored.getEdges().iterator();
+    for (Edge edge : graph.getEdges()) {
+      Edge other = edges.next();
+      assertEquals(edge, other);
+      assertEquals(edge.getSlabs(), other.getSlabs());
+      assertEquals(edge.getV1().getBranches().size(), other.getV1().getBranches().size());
+    }
+  }
+
+  @Test
+  public void itDeletesCorruptedEntries() throws IOException {
+    ByteProcessor mask = new ByteProcessor(40, 40);
+    mask.setColor(255);
+    mask.setRoi(5, 18, 30, 5);
+    mask.fill();
+    Graph graph = new Graph();
+    NativeSkeletonizer.skeletonize(mask, 1, graph);
+    this.cache.setSkeletonGraph("frame", 2.0, 0.0, Skeleton.Engine.Native, graph);
+    File file = this.directory.listFiles()[0];
+    byte[] bytes = Files.readAllBytes(file.toPath());
+    // vertex count of -1 after the magic number
+    bytes[4] = bytes[5] = bytes[6] = bytes[7] = (byte) 0xff;
+    Files.write(file.toPath(), bytes);
+
+    assertNull(this.cache.getSkeletonGraph("frame", 2.0, 0.0, Skeleton.Engine.Native));
+    assertFalse(file.exists());
+  }
+
+  @Test
+  public void itEvictsLeastRecentlyUsedEntries() {
+    // an entry of a 32 x 32 map takes a bit over 4 kB
+    SkeletonDiskCache small = new SkeletonDiskCache(this.directory, 12_000);
+    FloatProcessor map = new FloatProcessor(32, 32);
+    small.setIndexMap("a", 2.0, map);
+    small.setIndexMap("b", 2.0, map);
+    new File(this.directory, "a_2.0.sim").setLastModified(System.currentTimeMillis() - 20_000);
+    new File(this.directory, "b_2.0.sim").setLastModified(System.currentTimeMillis() - 10_000);
+    assertNotNull(small.getIndexMap("a", 2.0));
+    small.setIndexMap("c", 2.0, map);
+    assertNotNull(small.getIndexMap("a", 2.0));
+    assertNull(small.getIndexMap("b", 2.0));
+    assertNotNull(small.getIndexMap("c", 2.0));
+
+    small.clear();
+    assertNull(small.getIndexMap("a", 2.0));
+    assertEquals(0, this.directory.list().length);
+  }
+}
@@ -0,0 +1,119 @@
+package dev.mtbt.cells.skeleton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.graph.Edge;
+import dev.mtbt.graph.Vertex;
+import dev.mtbt.util.Parallel;
+import ij.ImagePlus;
+import ij.process.FloatProcessor;
+
+public class SkeletonTest {
+
+  private static Skeleton cross() {
+    FloatProcessor map = new FloatProcessor(80, 80);
+    map.setValue(1);
+    map.setRoi(10, 36, 60, 7);
+    map.fill();
+    map.setRoi(36, 10, 7, 60);
+    map.fill();
+    map.resetRoi();
+    map.resetMinAndMax();
+    return new Skeleton(new ImagePlus("", map), Skeleton.Engine.Native);
+  }
+
+  @Test
+  public void itReplaysMemoizedSpineGrowth() {
+    Skeleton skeleton = cross();
+
+    Spine first = skeleton.findSpine(new Point(15, 39));
+    Spine second = skeleton.findSpine(new Point(18, 39));
+    assertNotSame(first, second);
+    assertEquals(2, first.getEdges().size());
+    assertEquals(first.getEdges(), second.getEdges());
+    assertEquals(first.getBegin(), second.getBegin());
+    assertEquals(first.getEnd(), second.getEnd());
+
+    // spines are not shared
+    second.reverse();
+    assertEquals(first.getBegin(), skeleton.findSpine(new Point(15, 39)).getBegin());
+  }
+
+  @Test
+  public void itIsReadOnlyAfterConstruction() {
+    Skeleton skeleton = cross();
+    Edge edge = skeleton.getEdges().first();
+    assertThrows(UnsupportedOperationException.class, () -> skeleton.addVertex(new Vertex()));
+    assertThrows(UnsupportedOperationException.class,
+        () -> edge.getV1().setBranch(skeleton.getEdges().last()));
+    assertThrows(UnsupportedOperationException.class, () -> edge.getSlabs().clear());
+  }
+
+  @Test
+  public void itFindsSpinesConcurrently() {
+    Skeleton skeleton = cross();
+    List<Point> seeds = new ArrayList<>();
+    for (int i = 12; i < 68; i += 2) {
+      seeds.add(new Point(i, 39));
+      seeds.add(new Point(39, i));
+    }
+    Spine[] parallel = new Spine[seeds.size()];
+    Parallel.forEach(4, seeds.size(), i -> parallel[i] = skeleton.findSpine(seeds.get(i)));
+    for (int i = 0; i < seeds.size(); i++) {
+      assertEquals(skeleton.findSpine(seeds.get(i)).toPolyline(), parallel[i].toPolyline());
+    }
+  }
+
+  @Test
+  public void itComparesSpinesByFingerprints() {
+    Skeleton skeleton = cross();
+    // all arms have equal scores, spines turn from the left arm to the top one
+    Spine leftTop = skeleton.findSpine(new Point(15, 39));
+    Spine topLeft = skeleton.findSpine(new Point(39, 15));
+    Spine leftRight = skeleton.findSpine(new Point(60, 39));
+    assertTrue(leftTop.equals(topLeft));
+    assertTrue(leftTop.overlaps(leftRight));
+    assertFalse(leftTop.equals(leftRight));
+
+    leftTop.shorten(leftTop.getE1());
+    assertFalse(leftTop.overlaps(leftRight));
+    assertTrue(leftTop.overlaps(topLeft));
+    assertFalse(leftTop.equals(topLeft));
+  }
+
+  @Test
+  public void itLooksUpSlabsOfLargeSkeletons() {
+    FloatProcessor map = new FloatProcessor(1300, 1100);
+    map.setValue(1);
+    map.setRoi(10, 10, 60, 7);
+    map.fill();
+    map.setRoi(1230, 1080, 60, 7);
+    map.fill();
+    map.resetRoi();
+    map.resetMinAndMax();
+    Skeleton large = new Skeleton(new ImagePlus("", map), Skeleton.Engine.Native);
+    Skeleton small = cross();
+    assertNotNull(large.getLabels());
+    assertSame(small.getLabels(), small.getLabels());
+
+    for (Skeleton skeleton : new Skeleton[] {large, small}) {
+      for (Edge edge : skeleton.getEdges()) {
+        for (int i = 0; i < edge.getSlabs().size(); i++) {
+          assertEquals(i, skeleton.indexOfSlab(edge, edge.getSlabs().get(i)));
+        }
+      }
+    }
+  }
+}
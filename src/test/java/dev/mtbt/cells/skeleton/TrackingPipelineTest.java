@@ -0,0 +1,185 @@
+package dev.mtbt.cells.skeleton;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Rectangle;
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.cells.AbstractCellFrame;
+import dev.mtbt.cells.Cell;
+import dev.mtbt.cells.CellCollection;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.process.FloatProcessor;
+
+public class TrackingPipelineTest {
+  private static final int FRAMES = 5;
+
+  /**
+   * Bright rod growing and moving to the right by a few pixels every frame
+   */
+  private static ImagePlus movie() {
+    return movie(0);
+  }
+
+  /**
+   * Same movie with an empty border of given width around it
+   */
+  private static ImagePlus movie(int border) {
+    int width = 120 + 2 * border, height = 60 + 2 * border;
+    ImageStack stack = new ImageStack(width, height);
+    for (int t = 0; t < FRAMES; t++) {
+      FloatProcessor fp = new FloatProcessor(width, height);
+      for (int y = 0; y < 60; y++) {
+        for (int x = 20 + 3 * t; x < 70 + 5 * t; x++) {
+          fp.setf(border + x, border + y, (float) Math.exp(-(y - 30) * (y - 30) / 18.0));
+        }
+      }
+      stack.addSlice(fp);
+    }
+    ImagePlus imp = new ImagePlus("movie", stack);
+    imp.setDimensions(1, 1, FRAMES);
+    return imp;
+  }
+
+  private static CellCollection seed() {
+    CellCollection collection = new CellCollection();
+    collection.addToCollection(new Cell(1, new PolylineCellFrame(
+        Arrays.asList(new Point2D.Double(25, 30), new Point2D.Double(65, 30)))));
+    return collection;
+  }
+
+  private static CellCollection track(int parallelism) {
+    return track(parallelism, false);
+  }
+
+  private static CellCollection track(int parallelism, boolean motionPrediction) {
+    CellCollection collection = seed();
+    TrackingPipeline pipeline =
+        new TrackingPipeline(movie(), collection, 1, 1, 2.0, 0.0, Skeleton.Engine.Native);
+    pipeline.setParallelism(parallelism);
+    pipeline.setMotionPrediction(motionPrediction);
+    TrackingPipeline.Report report = pipeline.run(1);
+    assertEquals(!motionPrediction, report.getProcessedArea() == 1.0);
+    for (TrackingPipeline.Stage stage : TrackingPipeline.Stage.values()) {
+      assertEquals(FRAMES - 1, report.getFrames(stage));
+    }
+    return collection;
+  }
+
+  @Test
+  public void itTracksCellsToTheLastFrame() {
+    CellCollection collection = track(4);
+    for (int t = 2; t <= FRAMES; t++) {
+      List<Cell> cells = collection.getCells(t);
+      assertEquals(1, cells.size());
+      Point2D end = cells.get(0).getFrame(t).getEnd();
+      assertTrue(end.getX() > 60 + 5 * (t - 1), "cell follows the rod in frame " + t);
+    }
+  }
+
+  @Test
+  public void itDoesNotDependOnParallelism() {
+    CellCollection sequential = track(1);
+    CellCollection parallel = track(4);
+    for (int t = 2; t <= FRAMES; t++) {
+      assertEquals(sequential.getCells(t).get(0).getFrame(t).toPolyline(),
+          parallel.getCells(t).get(0).getFrame(t).toPolyline());
+    }
+  }
+
+  @Test
+  public void itTracksWithinPredictedRegions() {
+    CellCollection full = track(2);
+    CellCollection predicted = track(2, true);
+    for (int t = 2; t <= FRAMES; t++) {
+      AbstractCellFrame expected = full.getCells(t).get(0).getFrame(t);
+      AbstractCellFrame frame = predicted.getCells(t).get(0).getFrame(t);
+      assertEquals(expected.getBegin().getX(), frame.getBegin().getX(), 2);
+      assertEquals(expected.getEnd().getX(), frame.getEnd().getX(), 2);
+    }
+  }
+
+  @Test
+  public void itComputesRegionsLikeWholeFrames() {
+    // the border keeps regions cropped with their margin strictly inside the frame at every blur
+    int border = 50;
+    Rectangle region = new Rectangle(border + 30, border + 16, 40, 28);
+    for (double blur : new double[] {2.0, TrackingPipeline.MAX_REGION_BLUR - 0.1, 8.0}) {
+      TrackingPipeline pipeline = new TrackingPipeline(movie(border), seed(), 1, 1, blur, -1.0,
+          Skeleton.Engine.Native);
+      FloatProcessor full = pipeline.prepare(2, null, new TrackingPipeline.Report()).shapeIndexMap;
+      FloatProcessor cropped = pipeline.prepare(2, Arrays.asList(region),
+          new TrackingPipeline.Report()).shapeIndexMap;
+      assertEquals(full.getMin(), cropped.getMin());
+      assertEquals(full.getMax(), cropped.getMax());
+      for (int y = region.y; y < region.y + region.height; y++) {
+        for (int x = region.x; x < region.x + region.width; x++) {
+          assertEquals(full.getf(x, y), cropped.getf(x, y), 1e-6,
+              "blur " + blur + " at " + x + "," + y);
+        }
+      }
+    }
+    TrackingPipeline blurred =
+        new TrackingPipeline(movie(), seed(), 1, 1, 8.0, 0.0, Skeleton.Engine.Native);
+    blurred.setMotionPrediction(true);
+    assertFalse(blurred.usesRegions());
+    TrackingPipeline analyzed =
+        new TrackingPipeline(movie(), seed(), 1, 1, 2.0, 0.0, Skeleton.Engine.AnalyzeSkeleton);
+    analyzed.setMotionPrediction(true);
+    assertFalse(analyzed.usesRegions());
+  }
+
+  @Test
+  public void itStopsWhenCancelled() {
+    CellCollection collection = seed();
+    TrackingPipeline pipeline =
+        new TrackingPipeline(movie(), collection, 1, 1, 2.0, 0.0, Skeleton.Engine.Native);
+    pipeline.setFrameListener(frame -> {
+      if (frame == 3) {
+        pipeline.cancel();
+      }
+    });
+    TrackingPipeline.Report report = pipeline.run(1);
+    assertEquals(3, report.getLastFrame());
+    assertEquals(1, collection.getCells(3).size());
+    assertTrue(collection.getCells(4).isEmpty());
+  }
+
+  @Test
+  public void itTracksLikeTheLifeTrackerStep() throws Exception {
+    CellCollection pipelined = track(2);
+
+    File directory = Files.createTempDirectory("checkpoints").toFile();
+    CellCollection stepped = seed();
+    SkeletonCellLifeTracker step = new SkeletonCellLifeTracker();
+    step.setCheckpointDirectory(directory);
+    try {
+      ImagePlus imp = movie();
+      step.init(imp, stepped);
+      step.blurRadiusSlider.setValue(2.0);
+      step.nativeEngineCheckBox.setSelected(true);
+      for (int t = 1; t < FRAMES; t++) {
+        step.calculateNextFrame();
+      }
+    } finally {
+      step.cleanup();
+      Files.walk(directory.toPath()).sorted((a, b) -> b.compareTo(a))
+          .forEach(path -> path.toFile().delete());
+    }
+
+    for (int t = 2; t <= FRAMES; t++) {
+      assertEquals(1, stepped.getCells(t).size());
+      assertEquals(pipelined.getCells(t).get(0).getFrame(t).toPolyline(),
+          stepped.getCells(t).get(0).getFrame(t).toPolyline());
+    }
+  }
+}
@@ -0,0 +1,162 @@
+package dev.mtbt.graph;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.util.Pair;
+
+public class CompactGraphTest {
+  private Graph graph;
+  private Vertex a, b, c, d, e;
+
+  private static Vertex vertex(int x, int y) {
+    Vertex v = new Vertex();
+    v.addPoint(new Point(x, y));
+    return v;
+  }
+
+  private static Edge edge(Vertex v1, Vertex v2) {
+    Point p1 = v1.center();
+    Point p2 = v2.center();
+    int steps = Math.max(Math.abs(p2.x - p1.x), Math.abs(p2.y - p1.y));
+    ArrayList<Point> slabs = new ArrayList<>();
+    for (int i = 1; i < steps; i++) {
+      slabs.add(new Point(p1.x + (p2.x - p1.x) * i / steps, p1.y + (p2.y - p1.y) * i / steps));
+    }
+    return new Edge(v1, v2, slabs);
+  }
+
+  /*-
+   * a --- b --- c --- e
+   *       |
+   *       d
+   */
+  @BeforeEach
+  public void setUp() {
+    graph = new Graph();
+    a = vertex(0, 0);
+    b = vertex(10, 0);
+    c = vertex(20, 0);
+    d = vertex(10, 10);
+    e = vertex(30, 0);
+    for (Vertex v : new Vertex[] {a, b, c, d, e}) {
+      graph.addVertex(v);
+    }
+    graph.addEdge(edge(a, b));
+    graph.addEdge(edge(b, c));
+    graph.addEdge(edge(b, d));
+    graph.addEdge(edge(c, e));
+  }
+
+  @Test
+  public void itAssignsIdsInGraphOrder() {
+    CompactGraph compact = new CompactGraph(graph);
+    int id = 0;
+    for (Vertex v : graph.getVertices()) {
+      assertEquals(id, v.getId());
+      assertEquals(v, compact.getVertex(id++));
+    }
+    id = 0;
+    for (Edge edge : graph.getEdges()) {
+      assertEquals(id, edge.getId());
+      assertEquals(edge.getV1().getId(), compact.getV1(id));
+      assertEquals(edge.getV2().getId(), compact.getV2(id));
+      assertEquals(edge.getId(), edge.clone(edge.getV1(), edge.getV2()).getId());
+      id++;
+    }
+  }
+
+  @Test
+  public void itKeepsBranchOrderOfVertices() {
+    CompactGraph compact = new CompactGraph(graph);
+    for (Vertex v : graph.getVertices()) {
+      int k = 0;
+      for (Edge branch : v.getBranches()) {
+        assertEquals(branch.getId(), compact.getBranch(v.getId(), k++));
+      }
+      assertEquals(k, compact.getDegree(v.getId()));
+      assertEquals(v.isLeaf(), compact.isLeaf(v.getId()));
+      assertEquals(v.center().x, compact.center(v.getId()).x);
+      assertEquals(v.center().y, compact.center(v.getId()).y);
+    }
+  }
+
+  @Test
+  public void itReturnsDirectedSlabs() {
+    CompactGraph compact = new CompactGraph(graph);
+    for (Edge edge : graph.getEdges()) {
+      for (Vertex begin : new Vertex[] {edge.getV1(), edge.getV2()}) {
+        ArrayList<Point> expected = edge.getDirectedSlabs(begin);
+        int[] actual = compact.getDirectedSlabs(edge.getId(), begin.getId());
+        assertEquals(2 * expected.size(), actual.length);
+        for (int i = 0; i < expected.size(); i++) {
+          assertEquals(expected.get(i).x, actual[2 * i]);
+          assertEquals(expected.get(i).y, actual[2 * i + 1]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void itFindsClosestSlabLikeGraph() {
+    CompactGraph compact = new CompactGraph(graph);
+    Random random = new Random(1);
+    for (int i = 0; i < 200; i++) {
+      Point point = new Point(random.nextInt(40) - 5, random.nextInt(20) - 5);
+      Pair<Point, Edge> expected = graph.closestEdge(point);
+      int slab = compact.closestSlab(point.x, point.y);
+      assertEquals(expected.getValue().getId(), compact.getSlabEdge(slab));
+      assertEquals(expected.getKey().x, compact.getSlabX(slab));
+      assertEquals(expected.getKey().y, compact.getSlabY(slab));
+    }
+    Point slab = graph.getEdges().last().getSlabs().get(3);
+    assertEquals(graph.getEdges().last().getId(), compact.findEdge(slab.x, slab.y));
+    assertEquals(3, compact.indexOfSlab(graph.getEdges().last().getId(), slab.x, slab.y));
+    assertEquals(-1, compact.findEdge(-1, -1));
+  }
+
+  @Test
+  public void itTraversesThroughOppositeBranches() {
+    CompactGraph compact = new CompactGraph(graph);
+    Edge ab = graph.getEdges().floor(edge(a, b));
+    Edge bc = graph.getEdges().floor(edge(b, c));
+    Edge ce = graph.getEdges().floor(edge(c, e));
+    assertArrayEquals(new int[] {ce.getId(), bc.getId()},
+        compact.traverse(e.getId(), ce.getId(), b.getId()));
+    assertArrayEquals(new int[] {ce.getId()}, compact.findPath(e.getId(), c.getId()));
+    assertArrayEquals(new int[] {ab.getId()}, compact.findPath(a.getId(), b.getId()));
+    // b has branches ab, bd, bc - the walk from a continues through the last one
+    assertArrayEquals(new int[] {ab.getId(), bc.getId(), ce.getId()},
+        compact.traverse(a.getId(), ab.getId(), -1));
+    assertArrayEquals(new int[] {ab.getId(), bc.getId(), ce.getId()},
+        compact.findPath(a.getId(), e.getId()));
+    assertNull(compact.findPath(a.getId(), d.getId()));
+  }
+
+  @Test
+  public void itLabelsSlabsAndVertices() {
+    CompactGraph compact = new CompactGraph(graph);
+    GraphLabelMap labels = new GraphLabelMap(compact);
+    for (int x = -2; x < 34; x++) {
+      for (int y = -2; y < 14; y++) {
+        int edge = compact.findEdge(x, y);
+        assertEquals(edge, labels.findEdge(x, y));
+        for (int id = 0; id < compact.getEdgeCount(); id++) {
+          assertEquals(compact.indexOfSlab(id, x, y), labels.indexOfSlab(id, x, y));
+        }
+        for (int id = 0; id < compact.getVertexCount(); id++) {
+          assertEquals(compact.isVertexPoint(id, x, y), labels.isVertexPoint(id, x, y));
+        }
+      }
+    }
+    assertEquals(b.getId(), labels.getVertex(10, 0));
+    assertEquals(GraphLabelMap.NONE, labels.getSlab(10, 0));
+  }
+}
@@ -0,0 +1,72 @@
+package dev.mtbt.graph;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+public class SlabGridIndexTest {
+
+  private static CompactGraph randomGraph(long seed, int nEdges, int size) {
+    Random random = new Random(seed);
+    Graph graph = new Graph();
+    for (int e = 0; e < nEdges; e++) {
+      Vertex v1 = new Vertex();
+      v1.addPoint(new Point(2 * e, -1));
+      Vertex v2 = new Vertex();
+      v2.addPoint(new Point(2 * e + 1, -1));
+      ArrayList<Point> slabs = new ArrayList<>();
+      int nSlabs = 1 + random.nextInt(20);
+      for (int i = 0; i < nSlabs; i++) {
+        // small coordinate range gives plenty of equally distant slabs
+        slabs.add(new Point(random.nextInt(size), random.nextInt(size)));
+      }
+      graph.addVertex(v1);
+      graph.addVertex(v2);
+      graph.addEdge(new Edge(v1, v2, slabs));
+    }
+    return new CompactGraph(graph);
+  }
+
+  @Test
+  public void itReturnsSameNearestSlabAsLinearScan() {
+    for (int size : new int[] {10, 100, 500}) {
+      CompactGraph graph = randomGraph(size, 30, size);
+      SlabGridIndex index = new SlabGridIndex(graph);
+      Random random = new Random(size + 1);
+      for (int i = 0; i < 500; i++) {
+        int x = random.nextInt(size + 100) - 50;
+        int y = random.nextInt(size + 100) - 50;
+        assertEquals(graph.closestSlab(x, y), index.nearest(x, y), "query " + x + ", " + y);
+      }
+    }
+  }
+
+  @Test
+  public void itReturnsSlabsWithinRadius() {
+    CompactGraph graph = randomGraph(7, 40, 200);
+    SlabGridIndex index = new SlabGridIndex(graph);
+    Random random = new Random(8);
+    for (int i = 0; i < 100; i++) {
+      int x = random.nextInt(240) - 20;
+      int y = random.nextInt(240) - 20;
+      double radius = random.nextDouble() * 40;
+      int[] expected = IntStream.range(0, graph.getSlabCount()).filter(s -> {
+        int dx = graph.getSlabX(s) - x, dy = graph.getSlabY(s) - y;
+        return dx * dx + dy * dy <= radius * radius;
+      }).toArray();
+      assertArrayEquals(expected, index.within(x, y, radius));
+    }
+  }
+
+  @Test
+  public void itHandlesEmptyGraphs() {
+    SlabGridIndex index = new SlabGridIndex(new CompactGraph(new Graph()));
+    assertEquals(-1, index.nearest(3, 4));
+    assertEquals(0, index.within(3, 4, 10).length);
+  }
+}
@@ -0,0 +1,78 @@
+package dev.mtbt.imagej;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import ij.plugin.filter.GaussianBlur;
+import ij.process.FloatProcessor;
+
+public class GaussianScaleSpaceTest {
+  private static final double[][] SLIDER_ORDERS = {{0.2, 0.4, 0.6, 0.8, 1.0, 1.2, 1.4, 1.6},
+      {4.0, 4.2, 4.4, 4.6, 3.8, 3.6, 1.4, 1.2}, {1.6, 1.4, 4.6, 1.2, 3.6, 0.8, 4.4, 0.2},
+      {4.6, 4.4, 4.2, 4.0, 3.8, 3.6, 1.6, 0.4}};
+
+  private static FloatProcessor image() {
+    Random random = new Random(3);
+    FloatProcessor fp = new FloatProcessor(96, 64);
+    for (int y = 0; y < 64; y++) {
+      for (int x = 0; x < 96; x++) {
+        float rod = y > 28 && y < 36 && x > 10 && x < 80 ? 1f : 0f;
+        fp.setf(x, y, rod + 0.2f * random.nextFloat());
+      }
+    }
+    return fp;
+  }
+
+  private static float[] direct(FloatProcessor original, double sigma) {
+    FloatProcessor fp = (FloatProcessor) original.duplicate();
+    new GaussianBlur().blurFloat(fp, sigma, sigma, 0.02);
+    return (float[]) fp.getPixels();
+  }
+
+  @Test
+  public void itDoesNotDependOnOrderOfRequests() {
+    FloatProcessor original = image();
+    float[][] reference = null;
+    for (double[] order : SLIDER_ORDERS) {
+      GaussianScaleSpace scaleSpace = new GaussianScaleSpace(original, 6);
+      float[][] levels = new float[SLIDER_ORDERS[0].length][];
+      for (double sigma : order) {
+        float[] pixels = (float[]) scaleSpace.get(sigma).getPixels();
+        for (int i = 0; i < SLIDER_ORDERS[0].length; i++) {
+          if (SLIDER_ORDERS[0][i] == sigma) {
+            levels[i] = pixels;
+          }
+        }
+      }
+      if (reference == null) {
+        reference = levels;
+      }
+      for (int i = 0; i < levels.length; i++) {
+        if (levels[i] != null && reference[i] != null) {
+          assertArrayEquals(reference[i], levels[i], "level " + SLIDER_ORDERS[0][i]);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void itMatchesDirectBlurs() {
+    FloatProcessor original = image();
+    for (double[] order : SLIDER_ORDERS) {
+      GaussianScaleSpace scaleSpace = new GaussianScaleSpace(original, 6);
+      for (double sigma : order) {
+        float[] expected = direct(original, sigma);
+        float[] actual = (float[]) scaleSpace.get(sigma).getPixels();
+        double maxError = 0;
+        for (int i = 0; i < expected.length; i++) {
+          maxError = Math.max(maxError, Math.abs(expected[i] - actual[i]));
+        }
+        assertTrue(maxError < 0.01, "sigma " + sigma + " differs by " + maxError);
+      }
+    }
+  }
+}
@@ -0,0 +1,41 @@
+package dev.mtbt.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+public class BoundsGridIndexTest {
+
+  private static Rectangle2D randomBox(Random random, int size) {
+    double x = random.nextDouble() * size - 20;
+    double y = random.nextDouble() * size - 20;
+    // lines of cuts and cells are often horizontal or vertical
+    double w = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 80;
+    double h = random.nextInt(4) == 0 ? 0 : random.nextDouble() * 80;
+    return new Rectangle2D.Double(x, y, w, h);
+  }
+
+  @Test
+  public void itReturnsSameItemsAsLinearScan() {
+    Random random = new Random(7);
+    List<Rectangle2D> boxes = new ArrayList<>();
+    for (int i = 0; i < 300; i++) {
+      boxes.add(randomBox(random, 500));
+    }
+    BoundsGridIndex<Rectangle2D> index = new BoundsGridIndex<>(boxes, box -> box);
+    for (int q = 0; q < 300; q++) {
+      Rectangle2D area = randomBox(random, 500);
+      List<Rectangle2D> expected = boxes.stream()
+          .filter(box -> box.getMinX() <= area.getMaxX() && area.getMinX() <= box.getMaxX()
+              && box.getMinY() <= area.getMaxY() && area.getMinY() <= box.getMaxY())
+          .collect(Collectors.toList());
+      assertEquals(expected, index.query(area), "query " + area);
+    }
+  }
+}
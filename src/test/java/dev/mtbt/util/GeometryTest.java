@@ -0,0 +1,49 @@
+package dev.mtbt.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import dev.mtbt.graph.Point;
+
+public class GeometryTest {
+
+  /**
+   * Recursive simplification with two passes and reversals used before the iterative one
+   */
+  private static List<Point> recursiveSimplification(List<Point> polyline, double tolerance) {
+    ArrayList<Point> result = Geometry.simplifyPolylineOneWay(polyline, tolerance);
+    Collections.reverse(result);
+    result = Geometry.simplifyPolylineOneWay(result, tolerance);
+    Collections.reverse(result);
+    return result;
+  }
+
+  static List<Point> randomWalk(Random random, int n) {
+    List<Point> polyline = new ArrayList<>();
+    int x = 0, y = 0;
+    for (int i = 0; i < n; i++) {
+      x += random.nextInt(3) - (random.nextInt(8) == 0 ? 2 : 0);
+      y += random.nextInt(3) - 1;
+      polyline.add(new Point(x, y));
+    }
+    return polyline;
+  }
+
+  @Test
+  public void itSimplifiesPolylinesLikeRecursiveAlgorithm() {
+    Random random = new Random(7);
+    for (int n = 1; n < 300; n += 1 + n / 10) {
+      for (double tolerance : new double[] {0.5, 2, 5}) {
+        List<Point> polyline = randomWalk(random, n);
+        assertEquals(recursiveSimplification(polyline, tolerance),
+            Geometry.simplifyPolyline(polyline, tolerance));
+      }
+    }
+  }
+}
@@ -0,0 +1,61 @@
+package dev.mtbt.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import dev.mtbt.graph.Point;
+
+/**
+ * Compares the recursive list based simplification with the iterative one over coordinate arrays
+ * on spines of various lengths. Run manually:
+ *
+ * <pre>
+ * java ... dev.mtbt.util.PolylineSimplificationBenchmark
+ * </pre>
+ */
+public class PolylineSimplificationBenchmark {
+  private static final int RUNS = 15;
+  private static final double TOLERANCE = 2;
+
+  public static void main(String[] args) {
+    Random random = new Random(1);
+    for (int n : new int[] {50, 200, 1000, 5000}) {
+      List<Point> polyline = GeometryTest.randomWalk(random, n);
+      int[] xs = polyline.stream().mapToInt(p -> p.x).toArray();
+      int[] ys = polyline.stream().mapToInt(p -> p.y).toArray();
+      boolean[] keep = new boolean[n];
+      int repeat = Math.max(1, 200000 / n);
+      System.out.println(n + " points:");
+      measure("  recursive", repeat, () -> recursive(polyline));
+      measure("  iterative", repeat, () -> Geometry.simplifyPolyline(xs, ys, n, TOLERANCE, keep));
+    }
+  }
+
+  private static List<Point> recursive(List<Point> polyline) {
+    ArrayList<Point> result = Geometry.simplifyPolylineOneWay(polyline, TOLERANCE);
+    Collections.reverse(result);
+    result = Geometry.simplifyPolylineOneWay(result, TOLERANCE);
+    Collections.reverse(result);
+    return result;
+  }
+
+  private static void measure(String label, int repeat, Supplier<Object> task) {
+    for (int i = 0; i < repeat; i++) {
+      task.get();
+    }
+    long[] nanos = new long[RUNS];
+    for (int r = 0; r < RUNS; r++) {
+      long start = System.nanoTime();
+      for (int i = 0; i < repeat; i++) {
+        task.get();
+      }
+      nanos[r] = (System.nanoTime() - start) / repeat;
+    }
+    Arrays.sort(nanos);
+    System.out.printf("%-14s %10.2f us%n", label, nanos[RUNS / 2] / 1e3);
+  }
+}